@@ -0,0 +1,105 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.msgpack.annotation.Message;
+import org.msgpack.annotation.MessagePackMessage;
+
+
+/**
+ * Finds classes annotated with @Message or @MessagePackMessage in the given
+ * packages and their subpackages, from both directories and jar files.
+ */
+class MessageClassScanner {
+    private ClassLoader loader;
+
+    MessageClassScanner(ClassLoader loader) {
+	this.loader = loader;
+    }
+
+    List<Class<?>> scan(String... packageNames) throws IOException {
+	List<String> classNames = new ArrayList<String>();
+	for (String packageName : packageNames) {
+	    String path = packageName.replace('.', '/');
+	    Enumeration<URL> urls = loader.getResources(path);
+	    while (urls.hasMoreElements()) {
+		URL url = urls.nextElement();
+		if ("file".equals(url.getProtocol())) {
+		    File dir = new File(URLDecoder.decode(url.getPath(), "UTF-8"));
+		    scanDirectory(dir, packageName, classNames);
+		} else if ("jar".equals(url.getProtocol())) {
+		    JarFile jar = ((JarURLConnection) url.openConnection()).getJarFile();
+		    scanJar(jar, path + "/", classNames);
+		}
+	    }
+	}
+
+	List<Class<?>> result = new ArrayList<Class<?>>();
+	for (String name : classNames) {
+	    Class<?> c;
+	    try {
+		c = Class.forName(name, false, loader);
+	    } catch (ClassNotFoundException e) {
+		continue;
+	    } catch (LinkageError e) {
+		continue;
+	    }
+	    if (c.getAnnotation(Message.class) != null
+		    || c.getAnnotation(MessagePackMessage.class) != null) {
+		result.add(c);
+	    }
+	}
+	return result;
+    }
+
+    private static void scanDirectory(File dir, String packageName, List<String> classNames) {
+	File[] files = dir.listFiles();
+	if (files == null) {
+	    return;
+	}
+	for (File f : files) {
+	    String name = f.getName();
+	    if (f.isDirectory()) {
+		scanDirectory(f, packageName + "." + name, classNames);
+	    } else if (name.endsWith(".class")) {
+		classNames.add(packageName + "." + name.substring(0, name.length() - 6));
+	    }
+	}
+    }
+
+    private static void scanJar(JarFile jar, String prefix, List<String> classNames) {
+	Enumeration<JarEntry> entries = jar.entries();
+	while (entries.hasMoreElements()) {
+	    String name = entries.nextElement().getName();
+	    if (name.startsWith(prefix) && name.endsWith(".class")) {
+		classNames.add(name.substring(0, name.length() - 6).replace('/', '.'));
+	    }
+	}
+    }
+}
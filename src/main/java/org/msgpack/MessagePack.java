@@ -21,10 +21,18 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.msgpack.template.Template;
+import org.msgpack.template.builder.ColumnarTemplate;
+import org.msgpack.template.builder.DeltaTemplate;
 import org.msgpack.packer.StreamPacker;
+import org.msgpack.io.BufferFullException;
 import org.msgpack.packer.BufferPacker;
+import org.msgpack.packer.ByteArrayPacker;
+import org.msgpack.packer.ByteBufferPacker;
 import org.msgpack.packer.Unconverter;
 import org.msgpack.unpacker.StreamUnpacker;
 import org.msgpack.unpacker.BufferUnpacker;
@@ -35,6 +43,15 @@ import org.msgpack.value.Value;
 public class MessagePack {
     private TemplateRegistry registry;
 
+    private final ThreadLocal<ByteArrayPacker> byteArrayPackers = new ThreadLocal<ByteArrayPacker>();
+
+    private final ThreadLocal<ByteBufferPacker> byteBufferPackers = new ThreadLocal<ByteBufferPacker>();
+
+    // a cached packer is pointed at these so that it keeps no caller's buffer
+    private static final byte[] EMPTY_ARRAY = new byte[0];
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
     public MessagePack() {
 	registry = new TemplateRegistry();
     }
@@ -53,6 +70,66 @@ public class MessagePack {
         return pk.toByteArray();
     }
 
+    /**
+     * Writes into dst starting at off. Returns the number of bytes
+     * written, or -1 if the object does not fit in the rest of dst.
+     */
+    public int write(Object v, byte[] dst, int off) throws IOException {
+        return write(v, registry.lookup(v.getClass()), dst, off);
+    }
+
+    public int write(Object v, Template tmpl, byte[] dst, int off) throws IOException {
+        // taken out of the slot while in use so that a nested call gets its own
+        ByteArrayPacker pk = byteArrayPackers.get();
+        if(pk == null) {
+            pk = new ByteArrayPacker(this, dst, off, dst.length - off);
+        } else {
+            byteArrayPackers.set(null);
+            pk.reset(dst, off, dst.length - off);
+        }
+        try {
+            tmpl.write(pk, v);
+            return pk.getSize();
+        } catch (BufferFullException e) {
+            return -1;
+        } finally {
+            pk.reset(EMPTY_ARRAY, 0, 0);
+            byteArrayPackers.set(pk);
+        }
+    }
+
+    /**
+     * Writes into dst at its position and advances the position. Returns
+     * the number of bytes written, or -1 if the object does not fit in the
+     * remaining bytes, in which case the position is unchanged.
+     */
+    public int write(Object v, ByteBuffer dst) throws IOException {
+        return write(v, registry.lookup(v.getClass()), dst);
+    }
+
+    public int write(Object v, Template tmpl, ByteBuffer dst) throws IOException {
+        // duplicate() is big-endian whatever the order of dst
+        ByteBuffer buf = dst.duplicate();
+        ByteBufferPacker pk = byteBufferPackers.get();
+        if(pk == null) {
+            pk = new ByteBufferPacker(this, buf);
+        } else {
+            byteBufferPackers.set(null);
+            pk.reset(buf);
+        }
+        try {
+            tmpl.write(pk, v);
+        } catch (BufferFullException e) {
+            return -1;
+        } finally {
+            pk.reset(EMPTY);
+            byteBufferPackers.set(pk);
+        }
+        int len = buf.position() - dst.position();
+        dst.position(buf.position());
+        return len;
+    }
+
     public void write(OutputStream out, Object v) throws IOException {
         write(out, v, registry.lookup(v.getClass()));
     }
@@ -151,6 +228,34 @@ public class MessagePack {
 	registry.register(type);
     }
 
+    public void registerMap(Class<?> type) {
+	registry.registerMap(type);
+    }
+
+    /**
+     * Registers every @Message class in the packages and builds the
+     * templates on the executor, so that they are ready before the first
+     * read or write. Returns the build time of each template in
+     * nanoseconds.
+     */
+    public Map<Class<?>, Long> precompile(ExecutorService executor, String... packageNames)
+	    throws IOException, InterruptedException {
+	ClassLoader loader = Thread.currentThread().getContextClassLoader();
+	if (loader == null) {
+	    loader = MessagePack.class.getClassLoader();
+	}
+	List<Class<?>> classes = new MessageClassScanner(loader).scan(packageNames);
+	return registry.precompile(classes, executor);
+    }
+
+    public void registerGraph(Class<?> type) {
+	registry.registerGraph(type);
+    }
+
+    public void registerPolymorphic(Class<?> baseType, Class<?>... subtypes) {
+	registry.registerPolymorphic(baseType, subtypes);
+    }
+
     // TODO #MN
     // public void forceRegister(Class<?> type);
 
@@ -161,6 +266,22 @@ public class MessagePack {
     public Template getTemplate(Class<?> type) {
 	return registry.lookup(type);
     }
+
+    public Template getProjectionTemplate(Class<?> type, String... fieldNames) {
+	return registry.lookupProjection(type, fieldNames);
+    }
+
+    public Template getProjectionTemplate(Class<?> type, int... indexes) {
+	return registry.lookupProjection(type, indexes);
+    }
+
+    public ColumnarTemplate getColumnarTemplate(Class<?> type) {
+	return registry.lookupColumnar(type);
+    }
+
+    public DeltaTemplate getDeltaTemplate(Class<?> type) {
+	return registry.lookupDelta(type);
+    }
     private static final MessagePack globalMessagePack = new MessagePack();
 
     @Deprecated
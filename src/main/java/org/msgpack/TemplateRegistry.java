@@ -17,10 +17,21 @@
 //
 package org.msgpack;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.HashMap;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
 import java.math.BigInteger;
 
 import org.msgpack.template.BigIntegerTemplate;
@@ -33,19 +44,30 @@ import org.msgpack.template.DoubleTemplate;
 import org.msgpack.template.FieldList;
 import org.msgpack.template.FloatArrayTemplate;
 import org.msgpack.template.FloatTemplate;
+import org.msgpack.template.GenericCollectionTemplate;
+import org.msgpack.template.GenericListTemplate;
+import org.msgpack.template.GenericMapTemplate;
 import org.msgpack.template.GenericTemplate;
 import org.msgpack.template.IntegerArrayTemplate;
 import org.msgpack.template.IntegerTemplate;
 import org.msgpack.template.LongArrayTemplate;
 import org.msgpack.template.LongTemplate;
+import org.msgpack.template.PolymorphicTemplate;
 import org.msgpack.template.ShortArrayTemplate;
 import org.msgpack.template.ShortTemplate;
 import org.msgpack.template.StringTemplate;
 import org.msgpack.template.Template;
 import org.msgpack.template.ValueTemplate;
 import org.msgpack.template.builder.AbstractTemplateBuilder;
-import org.msgpack.template.builder.ReflectionTemplateBuilder;
+import org.msgpack.template.builder.ColumnarTemplate;
+import org.msgpack.template.builder.ColumnarTemplateBuilder;
+import org.msgpack.template.builder.DeltaTemplate;
+import org.msgpack.template.builder.DeltaTemplateBuilder;
+import org.msgpack.template.builder.GraphTemplateBuilder;
+import org.msgpack.template.builder.MapReflectionTemplateBuilder;
+import org.msgpack.template.builder.TemplateBuildException;
 import org.msgpack.template.builder.TemplateBuilder;
+import org.msgpack.template.builder.TemplateBuilderChain;
 import org.msgpack.value.Value;
 
 
@@ -55,11 +77,19 @@ public class TemplateRegistry {
 
     private Map<Type, Template> cache;
 
-    // TODO #MN current version is reflection-based template builder only, builder -> selector
-    private TemplateBuilder builder;
+    private TemplateBuilderChain chain;
 
     private Map<Type, GenericTemplate> genericCache;
 
+    // templates built from genericCache, keyed by the full parameterized type
+    private Map<ParameterizedType, Template> parameterizedCache;
+
+    private Map<Type, ColumnarTemplate> columnarCache;
+
+    private Map<List<Object>, Template> projectionCache;
+
+    private Map<Type, DeltaTemplate> deltaCache;
+
     TemplateRegistry() {
 	this(null);
     }
@@ -68,13 +98,15 @@ public class TemplateRegistry {
 	parent = registry;
 	cache = new HashMap<Type, Template>();
 	genericCache = new HashMap<Type, GenericTemplate>();
-	// TODO #MN builder -> selector
+	parameterizedCache = new HashMap<ParameterizedType, Template>();
+	columnarCache = new HashMap<Type, ColumnarTemplate>();
+	projectionCache = new HashMap<List<Object>, Template>();
+	deltaCache = new HashMap<Type, DeltaTemplate>();
 	if (parent == null) {
 	    registerDefaultTemplates();
-	    // TODO #MN builder -> selector
-	    builder = new ReflectionTemplateBuilder(this);
+	    chain = new TemplateBuilderChain(this);
 	} else {
-	    builder = registry.builder;
+	    chain = registry.chain;
 	}
     }
 
@@ -103,27 +135,163 @@ public class TemplateRegistry {
         register(String.class, StringTemplate.getInstance());
         register(byte[].class, ByteArrayTemplate.getInstance());
         register(Value.class, ValueTemplate.getInstance());
+        registerGeneric(List.class, new GenericListTemplate());
+        registerGeneric(Collection.class, new GenericCollectionTemplate());
+        registerGeneric(Map.class, new GenericMapTemplate());
     }
 
     public void register(Class<?> targetClass) {
-	// TODO #MN builder -> selector
-	register(targetClass, builder.buildTemplate(targetClass));
+	register(targetClass, loadOrBuild(targetClass));
+    }
+
+    private Template loadOrBuild(Class<?> targetClass) {
+	TemplateBuilder builder = chain.select(targetClass);
+	if (builder == null) {
+	    builder = chain.getForceBuilder();
+	}
+	Template tmpl = builder.loadTemplate(targetClass);
+	if (tmpl != null) {
+	    return tmpl;
+	}
+	return builder.buildTemplate(targetClass);
+    }
+
+    public void registerMap(Class<?> targetClass) {
+	register(targetClass, new MapReflectionTemplateBuilder(this).buildTemplate(targetClass));
+    }
+
+    /**
+     * Registers a template that writes repeated and cyclic references to
+     * instances of the class as back-references.
+     */
+    public synchronized void registerGraph(Class<?> targetClass) {
+	new GraphTemplateBuilder(this).buildTemplate(targetClass);
+    }
+
+    public synchronized void registerPolymorphic(Class<?> baseClass, Class<?>... subclasses) {
+	for (Class<?> c : subclasses) {
+	    if (!baseClass.isAssignableFrom(c) || c.isInterface() || Modifier.isAbstract(c.getModifiers())) {
+		throw new IllegalArgumentException("Not a concrete subtype of " + baseClass.getName() + ": " + c.getName());
+	    }
+	}
+	Class<?>[] types = subclasses.clone();
+	Template[] tmpls = new Template[types.length];
+	// registered first so that subtypes may have fields of the base type
+	register(baseClass, new PolymorphicTemplate(types, tmpls));
+	for (int i = 0; i < types.length; i++) {
+	    if (types[i] == baseClass) {
+		// lookup would return the polymorphic template itself
+		tmpls[i] = loadOrBuild(baseClass);
+	    } else {
+		tmpls[i] = lookup(types[i]);
+	    }
+	}
+    }
+
+    /**
+     * Builds and registers templates for the classes on the executor.
+     * Templates are built outside the registry lock, so independent
+     * classes are built in parallel. Returns the build time of each
+     * template in nanoseconds; classes that already had a template are
+     * omitted.
+     */
+    public Map<Class<?>, Long> precompile(Collection<Class<?>> classes, ExecutorService executor)
+	    throws InterruptedException {
+	List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+	for (final Class<?> c : classes) {
+	    tasks.add(new Callable<Long>() {
+		public Long call() {
+		    if (lookupCached(c) != null) {
+			return null;
+		    }
+		    long start = System.nanoTime();
+		    Template tmpl = loadOrBuild(c);
+		    long elapsed = System.nanoTime() - start;
+		    if (registerIfAbsent(c, tmpl) != null) {
+			// registered by another thread while this one was building
+			return null;
+		    }
+		    return elapsed;
+		}
+	    });
+	}
+
+	List<Future<Long>> futures = executor.invokeAll(tasks);
+	Map<Class<?>, Long> times = new LinkedHashMap<Class<?>, Long>();
+	int i = 0;
+	for (Class<?> c : classes) {
+	    Long elapsed;
+	    try {
+		elapsed = futures.get(i++).get();
+	    } catch (ExecutionException e) {
+		if (e.getCause() instanceof RuntimeException) {
+		    throw (RuntimeException) e.getCause();
+		}
+		throw new TemplateBuildException(e.getCause());
+	    }
+	    if (elapsed != null) {
+		times.put(c, elapsed);
+	    }
+	}
+	return times;
+    }
+
+    /**
+     * Registers the template unless the class already has one, and returns
+     * the template it already had, or null.
+     */
+    private synchronized Template registerIfAbsent(Class<?> targetClass, Template tmpl) {
+	Template existing = lookupCached(targetClass);
+	if (existing != null) {
+	    return existing;
+	}
+	put(targetClass, tmpl);
+	return null;
+    }
+
+    private synchronized Template lookupCached(Type targetType) {
+	Template tmpl = cache.get(targetType);
+	if (tmpl == null && parent != null) {
+	    tmpl = parent.lookupCached(targetType);
+	}
+	return tmpl;
     }
 
     public void register(Class<?> targetClass, final FieldList flist) {
 	if (flist == null) {
 	    throw new NullPointerException("FieldList object is null");
 	}
-	// TODO #MN builder -> selector
-	register(targetClass, ((AbstractTemplateBuilder) builder).buildTemplate(targetClass, flist));
+	register(targetClass, chain.getForceBuilder().buildTemplate(targetClass, flist));
     }
 
     public synchronized void register(Type targetType, final Template tmpl) {
-        if (targetType instanceof ParameterizedType) {
-            cache.put(((ParameterizedType) targetType).getRawType(), tmpl);
-        } else {
-            cache.put(targetType, tmpl);
-        }
+	put(targetType, tmpl);
+	flushBuiltTemplates();
+    }
+
+    /**
+     * Caches a template that the registry built or found itself. Unlike
+     * register, this keeps the templates built from the cache, since a
+     * template is only put for a type that had none.
+     */
+    private synchronized void put(Type targetType, Template tmpl) {
+	if (targetType instanceof ParameterizedType) {
+	    cache.put(((ParameterizedType) targetType).getRawType(), tmpl);
+	} else {
+	    cache.put(targetType, tmpl);
+	}
+    }
+
+    /**
+     * Drops the templates built from registered ones. Called when the user
+     * registers or unregisters a template, since any of them may hold the
+     * template that was replaced.
+     */
+    private void flushBuiltTemplates() {
+	parameterizedCache.clear();
+	columnarCache.clear();
+	projectionCache.clear();
+	deltaCache.clear();
     }
 
     public synchronized void registerGeneric(Type targetType, final GenericTemplate tmpl) {
@@ -132,15 +300,18 @@ public class TemplateRegistry {
 	} else {
 	    genericCache.put(targetType, tmpl);
 	}
+	flushBuiltTemplates();
     }
 
-    public boolean unregister(Type targetType) {
+    public synchronized boolean unregister(Type targetType) {
 	Template tmpl = cache.remove(targetType);
+	flushBuiltTemplates();
 	return tmpl != null;
     }
 
-    public void unregister() {
+    public synchronized void unregister() {
 	cache.clear();
+	flushBuiltTemplates();
     }
 
     public synchronized Template lookup(Type targetType) {
@@ -174,9 +345,11 @@ public class TemplateRegistry {
 	    if (tmpl != null) {
 		return tmpl;
 	    }
-	    tmpl = parent.lookupGenericImpl(pType);
-	    if (tmpl != null) {
-		return tmpl;
+	    if (parent != null) {
+		tmpl = parent.lookupGenericImpl(pType);
+		if (tmpl != null) {
+		    return tmpl;
+		}
 	    }
 	    targetType = pType.getRawType();
 	}
@@ -185,25 +358,27 @@ public class TemplateRegistry {
 	if (tmpl != null) {
 	    return tmpl;
 	}
-	tmpl = parent.cache.get(targetType);
-	if (tmpl != null) {
-	    return tmpl;
+	if (parent != null) {
+	    tmpl = parent.cache.get(targetType);
+	    if (tmpl != null) {
+		return tmpl;
+	    }
 	}
 
-	// TODO #MN builder -> selector
 	// find match TemplateBuilder
+	TemplateBuilder builder = chain.select(targetType);
 	if (builder != null) {
 	    if (forceLoad) {
 		tmpl = builder.loadTemplate(targetType);
 		if (tmpl != null) {
-		    register(targetType, tmpl);
+		    put(targetType, tmpl);
 		    return tmpl;
 		}
 	    }
 
 	    tmpl = builder.buildTemplate(targetType);
 	    if (tmpl != null) {
-		register(targetType, tmpl);
+		put(targetType, tmpl);
 		return tmpl;
 	    }
 	}
@@ -215,12 +390,12 @@ public class TemplateRegistry {
 	for (Class<?> infType : infTypes) {
 	    tmpl = cache.get(infType);
 	    if (tmpl != null) {
-		register(targetClass, tmpl);
+		put(targetClass, tmpl);
 		return tmpl;
-	    } else {
+	    } else if (parent != null) {
 		tmpl = parent.cache.get(infType);
 		if (tmpl != null) {
-		    parent.register(targetClass, tmpl);
+		    parent.put(targetClass, tmpl);
 		    return tmpl;
 		}
 	    }
@@ -232,29 +407,27 @@ public class TemplateRegistry {
 	    for (; superClass != Object.class; superClass = superClass.getSuperclass()) {
 		tmpl = cache.get(superClass);
 		if (tmpl != null) {
-		    register(targetClass, tmpl);
+		    put(targetClass, tmpl);
 		    return tmpl;
-		} else {
+		} else if (parent != null) {
 		    tmpl = parent.cache.get(superClass);
 		    if (tmpl != null) {
-			register(targetClass, tmpl);
+			put(targetClass, tmpl);
 			return tmpl;
 		    }
 		}
 	    }
 
 	    if (forceBuild) {
-		// TODO #MN
-		// tmpl = builderSelectorRegistry.getForceBuilder().buildTemplate(target);
-		tmpl = builder.buildTemplate(targetClass);
-		register(targetClass, tmpl);
+		tmpl = chain.getForceBuilder().buildTemplate(targetClass);
+		put(targetClass, tmpl);
 		return tmpl;
 	    }
 	}
 
 	if (fallbackDefault) {
 	    tmpl = new DefaultTemplate(this, (Class<?>) targetClass);
-	    register(targetClass, tmpl);
+	    put(targetClass, tmpl);
 	    return tmpl;
 	} else {
 	    throw new MessageTypeException(
@@ -262,6 +435,61 @@ public class TemplateRegistry {
 	}
     }
 
+    public synchronized ColumnarTemplate lookupColumnar(Class<?> targetClass) {
+	ColumnarTemplate tmpl = columnarCache.get(targetClass);
+	if (tmpl != null) {
+	    return tmpl;
+	}
+	tmpl = (ColumnarTemplate) new ColumnarTemplateBuilder(this).buildTemplate(targetClass);
+	columnarCache.put(targetClass, tmpl);
+	return tmpl;
+    }
+
+    public synchronized DeltaTemplate lookupDelta(Class<?> targetClass) {
+	DeltaTemplate tmpl = deltaCache.get(targetClass);
+	if (tmpl != null) {
+	    return tmpl;
+	}
+	tmpl = (DeltaTemplate) new DeltaTemplateBuilder(this).buildTemplate(targetClass);
+	deltaCache.put(targetClass, tmpl);
+	return tmpl;
+    }
+
+    public synchronized Template lookupProjection(Class<?> targetClass, String... fieldNames) {
+	List<Object> key = Arrays.<Object>asList(targetClass, Arrays.asList(fieldNames));
+	Template tmpl = projectionCache.get(key);
+	if (tmpl != null) {
+	    return tmpl;
+	}
+	tmpl = selectProjectionBuilder(targetClass).buildProjectionTemplate(targetClass, fieldNames);
+	projectionCache.put(key, tmpl);
+	return tmpl;
+    }
+
+    public synchronized Template lookupProjection(Class<?> targetClass, int... indexes) {
+	List<Object> key = new ArrayList<Object>();
+	key.add(targetClass);
+	for (int index : indexes) {
+	    key.add(index);
+	}
+	Template tmpl = projectionCache.get(key);
+	if (tmpl != null) {
+	    return tmpl;
+	}
+	tmpl = selectProjectionBuilder(targetClass).buildProjectionTemplate(targetClass, indexes);
+	projectionCache.put(key, tmpl);
+	return tmpl;
+    }
+
+    private AbstractTemplateBuilder selectProjectionBuilder(Class<?> targetClass) {
+	TemplateBuilder builder = chain.select(targetClass);
+	if (builder instanceof AbstractTemplateBuilder) {
+	    return (AbstractTemplateBuilder) builder;
+	}
+	// the builder does not read field entries
+	return chain.getForceBuilder();
+    }
+
     public synchronized Template lookupGeneric(final Type targetType) {
 	if (targetType instanceof ParameterizedType) {
 	    ParameterizedType parameterizedType = (ParameterizedType)targetType;
@@ -276,6 +504,11 @@ public class TemplateRegistry {
     }
 
     private synchronized Template lookupGenericImpl(final ParameterizedType targetType) {
+	Template built = parameterizedCache.get(targetType);
+	if (built != null) {
+	    return built;
+	}
+
 	Type rawType = targetType.getRawType();
 	GenericTemplate tmpl = genericCache.get(rawType);
 	if (tmpl == null) {
@@ -285,9 +518,16 @@ public class TemplateRegistry {
 	Type[] types = targetType.getActualTypeArguments();
 	Template[] tmpls = new Template[types.length];
 	for (int i=0; i < types.length; ++i) {
-	    tmpls[i] = lookup(types[i]);
+	    Type t = types[i];
+	    if (t instanceof WildcardType) {
+		// List<? extends Foo> is read and written as List<Foo>
+		t = ((WildcardType) t).getUpperBounds()[0];
+	    }
+	    tmpls[i] = lookup(t);
 	}
 
-	return tmpl.build(tmpls);
+	built = tmpl.build(tmpls);
+	parameterizedCache.put(targetType, built);
+	return built;
     }
 }
@@ -0,0 +1,109 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output that groups the buffered chunks into blocks and writes each block
+ * compressed with {@link Deflater}.
+ *
+ * Every block is preceded by a 12 bytes big-endian header:
+ * <pre>
+ *   int rawLength         length of the uncompressed block
+ *   int compressedLength  length of the payload that follows the header
+ *   int checksum          CRC32 of the uncompressed block
+ * </pre>
+ * If the block does not shrink, it is stored as is and compressedLength
+ * equals rawLength.
+ *
+ * @see BlockInflaterInput
+ */
+public class BlockDeflaterOutput extends BufferedOutput {
+    static final int HEADER_SIZE = 12;
+
+    private final OutputStream out;
+    private final Deflater deflater;
+    private final CRC32 crc;
+
+    private byte[] compressed;
+    private final byte[] header;
+    private final ByteBuffer castHeader;
+
+    public BlockDeflaterOutput(OutputStream out, int blockSize) {
+        this(out, blockSize, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public BlockDeflaterOutput(OutputStream out, int blockSize, int level) {
+        super(blockSize);
+        this.out = out;
+        this.deflater = new Deflater(level);
+        this.crc = new CRC32();
+        this.header = new byte[HEADER_SIZE];
+        this.castHeader = ByteBuffer.wrap(header);
+    }
+
+    protected boolean flushBuffer(byte[] b, int off, int len) throws IOException {
+        crc.reset();
+        crc.update(b, off, len);
+
+        if(compressed == null || compressed.length < len) {
+            compressed = new byte[Math.max(len, bufferSize)];
+        }
+        deflater.reset();
+        deflater.setInput(b, off, len);
+        deflater.finish();
+        int clen = 0;
+        while(!deflater.finished() && clen < len) {
+            clen += deflater.deflate(compressed, clen, len - clen);
+        }
+
+        if(deflater.finished() && clen < len) {
+            writeHeader(len, clen, crc.getValue());
+            out.write(compressed, 0, clen);
+        } else {
+            // incompressible block
+            writeHeader(len, len, crc.getValue());
+            out.write(b, off, len);
+        }
+        return true;
+    }
+
+    private void writeHeader(int rawLength, int compressedLength, long checksum) throws IOException {
+        castHeader.putInt(0, rawLength);
+        castHeader.putInt(4, compressedLength);
+        castHeader.putInt(8, (int) checksum);
+        out.write(header, 0, HEADER_SIZE);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        super.flush();
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        flush();
+        deflater.end();
+        out.close();
+    }
+}
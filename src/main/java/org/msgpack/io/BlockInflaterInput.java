@@ -0,0 +1,316 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Input that reads blocks written by {@link BlockDeflaterOutput}.
+ *
+ * Blocks are decompressed on demand and fed to a {@link LinkedBufferInput}.
+ * If an executor is given, up to readAhead blocks are decompressed ahead
+ * in parallel.
+ */
+public class BlockInflaterInput implements Input {
+    private final InputStream in;
+    private final LinkedBufferInput buffer;
+
+    private final byte[] header;
+    private final ByteBuffer castHeader;
+
+    private final Inflater inflater;
+    private final CRC32 crc;
+
+    private final ExecutorService executor;
+    private final int readAhead;
+    private final LinkedList<Future<byte[]>> pending;
+    private boolean endOfStream;
+
+    public BlockInflaterInput(InputStream in) {
+        this(in, null, 0);
+    }
+
+    public BlockInflaterInput(InputStream in, ExecutorService executor, int readAhead) {
+        this.in = in;
+        this.buffer = new LinkedBufferInput(0);
+        this.header = new byte[BlockDeflaterOutput.HEADER_SIZE];
+        this.castHeader = ByteBuffer.wrap(header);
+        this.inflater = new Inflater();
+        this.crc = new CRC32();
+        this.executor = executor;
+        this.readAhead = readAhead < 1 ? 1 : readAhead;
+        this.pending = new LinkedList<Future<byte[]>>();
+        this.endOfStream = false;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = buffer.read(b, off, len);
+        while(n < len) {
+            if(!feedBlock()) {
+                throw new EOFException();
+            }
+            n += buffer.read(b, off + n, len - n);
+        }
+        return len;
+    }
+
+    public byte readByte() throws IOException {
+        while(true) {
+            try {
+                return buffer.readByte();
+            } catch (EndOfBufferException e) {
+                if(!feedBlock()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public ByteBuffer readSlice(int len) {
+        return null;
+    }
+
+    public void advance() {
+        buffer.advance();
+    }
+
+    public byte getByte() throws IOException {
+        while(true) {
+            try {
+                return buffer.getByte();
+            } catch (EndOfBufferException e) {
+                if(!feedBlock()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public short getShort() throws IOException {
+        while(true) {
+            try {
+                return buffer.getShort();
+            } catch (EndOfBufferException e) {
+                if(!feedBlock()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public int getInt() throws IOException {
+        while(true) {
+            try {
+                return buffer.getInt();
+            } catch (EndOfBufferException e) {
+                if(!feedBlock()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public long getLong() throws IOException {
+        while(true) {
+            try {
+                return buffer.getLong();
+            } catch (EndOfBufferException e) {
+                if(!feedBlock()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public float getFloat() throws IOException {
+        while(true) {
+            try {
+                return buffer.getFloat();
+            } catch (EndOfBufferException e) {
+                if(!feedBlock()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public double getDouble() throws IOException {
+        while(true) {
+            try {
+                return buffer.getDouble();
+            } catch (EndOfBufferException e) {
+                if(!feedBlock()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        for(Future<byte[]> f : pending) {
+            f.cancel(false);
+        }
+        pending.clear();
+        inflater.end();
+        in.close();
+    }
+
+    private boolean feedBlock() throws IOException {
+        while(true) {
+            byte[] block;
+            if(executor == null) {
+                block = readBlock();
+            } else {
+                block = takeBlock();
+            }
+            if(block == null) {
+                return false;
+            }
+            if(block.length > 0) {
+                buffer.feed(block, true);
+                return true;
+            }
+        }
+    }
+
+    private byte[] readBlock() throws IOException {
+        if(!readHeader()) {
+            return null;
+        }
+        int rawLength = castHeader.getInt(0);
+        int compressedLength = castHeader.getInt(4);
+        int checksum = castHeader.getInt(8);
+        byte[] payload = new byte[compressedLength];
+        readFully(payload);
+        return inflate(inflater, crc, payload, rawLength, checksum);
+    }
+
+    private byte[] takeBlock() throws IOException {
+        while(!endOfStream && pending.size() < readAhead) {
+            if(!readHeader()) {
+                endOfStream = true;
+                break;
+            }
+            final int rawLength = castHeader.getInt(0);
+            final int compressedLength = castHeader.getInt(4);
+            final int checksum = castHeader.getInt(8);
+            final byte[] payload = new byte[compressedLength];
+            readFully(payload);
+            pending.addLast(executor.submit(new Callable<byte[]>() {
+                public byte[] call() throws IOException {
+                    Inflater inf = new Inflater();
+                    try {
+                        return inflate(inf, new CRC32(), payload, rawLength, checksum);
+                    } finally {
+                        inf.end();
+                    }
+                }
+            }));
+        }
+        if(pending.isEmpty()) {
+            return null;
+        }
+        try {
+            return pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decompressing a block");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause().toString());
+        }
+    }
+
+    private boolean readHeader() throws IOException {
+        int n = in.read(header, 0, header.length);
+        if(n < 0) {
+            return false;
+        }
+        while(n < header.length) {
+            int r = in.read(header, n, header.length - n);
+            if(r < 0) {
+                throw new EOFException("Truncated block header");
+            }
+            n += r;
+        }
+        int rawLength = castHeader.getInt(0);
+        int compressedLength = castHeader.getInt(4);
+        if(rawLength < 0 || compressedLength < 0 || compressedLength > rawLength) {
+            throw new IOException("Invalid block header");
+        }
+        return true;
+    }
+
+    private void readFully(byte[] b) throws IOException {
+        int off = 0;
+        while(off < b.length) {
+            int n = in.read(b, off, b.length - off);
+            if(n < 0) {
+                throw new EOFException("Truncated block");
+            }
+            off += n;
+        }
+    }
+
+    private static byte[] inflate(Inflater inf, CRC32 crc, byte[] payload,
+            int rawLength, int checksum) throws IOException {
+        byte[] raw;
+        if(payload.length == rawLength) {
+            // stored block
+            raw = payload;
+        } else {
+            raw = new byte[rawLength];
+            inf.reset();
+            inf.setInput(payload);
+            try {
+                int off = 0;
+                while(off < rawLength && !inf.finished()) {
+                    int n = inf.inflate(raw, off, rawLength - off);
+                    if(n == 0 && inf.needsInput()) {
+                        break;
+                    }
+                    off += n;
+                }
+                if(off != rawLength || !inf.finished()) {
+                    throw new IOException("Corrupted block");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted block: " + e.getMessage());
+            }
+        }
+        crc.reset();
+        crc.update(raw, 0, raw.length);
+        if((int) crc.getValue() != checksum) {
+            throw new IOException("Block checksum mismatch");
+        }
+        return raw;
+    }
+}
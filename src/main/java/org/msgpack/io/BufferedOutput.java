@@ -33,16 +33,19 @@ abstract class BufferedOutput implements Output {
         this.bufferSize = bufferSize;
     }
 
+    private void newBuffer() {
+        buffer = allocateBuffer();
+        castByteBuffer = ByteBuffer.wrap(buffer);
+    }
+
     private void reserve(int len) throws IOException {
         if(buffer == null) {
-            buffer = new byte[bufferSize];
-            castByteBuffer = ByteBuffer.wrap(buffer);
+            newBuffer();
             return;
         }
         if(bufferSize - filled < len) {
             if(!flushBuffer(buffer, 0, filled)) {
-                buffer = new byte[bufferSize];
-                castByteBuffer = ByteBuffer.wrap(buffer);
+                newBuffer();
             }
             filled = 0;
         }
@@ -54,15 +57,14 @@ abstract class BufferedOutput implements Output {
                 flushBuffer(b, off, len);
                 return;
             }
-            buffer = new byte[bufferSize];
-            castByteBuffer = ByteBuffer.wrap(buffer);
+            newBuffer();
         }
         if(len <= bufferSize - filled) {
             System.arraycopy(b, off, buffer, filled, len);
             filled += len;
         } else if(len < bufferSize) {
             if(!flushBuffer(buffer, 0, filled)) {
-                buffer = new byte[bufferSize];
+                newBuffer();
             }
             filled = 0;
             System.arraycopy(b, off, buffer, 0, len);
@@ -73,6 +75,28 @@ abstract class BufferedOutput implements Output {
         }
     }
 
+    public void write(ByteBuffer bb) throws IOException {
+        if(bb.hasArray()) {
+            write(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+            return;
+        }
+        ByteBuffer src = bb.duplicate();
+        while(src.hasRemaining()) {
+            reserve(1);
+            int n = Math.min(bufferSize - filled, src.remaining());
+            src.get(buffer, filled, n);
+            filled += n;
+        }
+    }
+
+    public void writeReference(byte[] b, int off, int len) throws IOException {
+        write(b, off, len);
+    }
+
+    public void writeReference(ByteBuffer bb) throws IOException {
+        write(bb);
+    }
+
     public void writeByte(byte v) throws IOException {
         reserve(1);
         buffer[filled++] = v;
@@ -158,6 +182,14 @@ abstract class BufferedOutput implements Output {
         }
     }
 
+    /**
+     * Returns a new buffer of bufferSize bytes. Subclasses may return
+     * a recycled one.
+     */
+    protected byte[] allocateBuffer() {
+        return new byte[bufferSize];
+    }
+
     protected abstract boolean flushBuffer(byte[] buffer, int off, int len) throws IOException;
 }
 
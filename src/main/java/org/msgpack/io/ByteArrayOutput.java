@@ -0,0 +1,181 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes into a fixed region of a byte array. Writing past the end of
+ * the region throws BufferFullException.
+ */
+public class ByteArrayOutput implements PatchableOutput {
+    private byte[] buffer;
+    private int offset;
+    private int position;
+    private int limit;
+
+    public ByteArrayOutput(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    public ByteArrayOutput(byte[] buffer, int off, int len) {
+        reset(buffer, off, len);
+    }
+
+    /**
+     * Discards what was written and starts writing into another region.
+     */
+    public void reset(byte[] buffer, int off, int len) {
+        if(off < 0 || len < 0 || buffer.length - off < len) {
+            throw new IndexOutOfBoundsException();
+        }
+        this.buffer = buffer;
+        this.offset = off;
+        this.position = off;
+        this.limit = off + len;
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     */
+    public int getSize() {
+        return position - offset;
+    }
+
+    public void putByteAndInt(int pos, byte b, int v) {
+        int p = position;
+        position = offset + pos;
+        buffer[position++] = b;
+        putInt(v);
+        position = p;
+    }
+
+    private void reserve(int len) throws BufferFullException {
+        if(limit - position < len) {
+            throw new BufferFullException();
+        }
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        reserve(len);
+        System.arraycopy(b, off, buffer, position, len);
+        position += len;
+    }
+
+    public void write(ByteBuffer bb) throws IOException {
+        int len = bb.remaining();
+        reserve(len);
+        bb.duplicate().get(buffer, position, len);
+        position += len;
+    }
+
+    public void writeReference(byte[] b, int off, int len) throws IOException {
+        write(b, off, len);
+    }
+
+    public void writeReference(ByteBuffer bb) throws IOException {
+        write(bb);
+    }
+
+    public void writeByte(byte v) throws IOException {
+        reserve(1);
+        buffer[position++] = v;
+    }
+
+    public void writeShort(short v) throws IOException {
+        reserve(2);
+        putShort(v);
+    }
+
+    public void writeInt(int v) throws IOException {
+        reserve(4);
+        putInt(v);
+    }
+
+    public void writeLong(long v) throws IOException {
+        reserve(8);
+        putLong(v);
+    }
+
+    public void writeFloat(float v) throws IOException {
+        reserve(4);
+        putInt(Float.floatToRawIntBits(v));
+    }
+
+    public void writeDouble(double v) throws IOException {
+        reserve(8);
+        putLong(Double.doubleToRawLongBits(v));
+    }
+
+    public void writeByteAndByte(byte b, byte v) throws IOException {
+        reserve(2);
+        buffer[position++] = b;
+        buffer[position++] = v;
+    }
+
+    public void writeByteAndShort(byte b, short v) throws IOException {
+        reserve(3);
+        buffer[position++] = b;
+        putShort(v);
+    }
+
+    public void writeByteAndInt(byte b, int v) throws IOException {
+        reserve(5);
+        buffer[position++] = b;
+        putInt(v);
+    }
+
+    public void writeByteAndLong(byte b, long v) throws IOException {
+        reserve(9);
+        buffer[position++] = b;
+        putLong(v);
+    }
+
+    public void writeByteAndFloat(byte b, float v) throws IOException {
+        reserve(5);
+        buffer[position++] = b;
+        putInt(Float.floatToRawIntBits(v));
+    }
+
+    public void writeByteAndDouble(byte b, double v) throws IOException {
+        reserve(9);
+        buffer[position++] = b;
+        putLong(Double.doubleToRawLongBits(v));
+    }
+
+    public void flush() throws IOException {
+    }
+
+    private void putShort(short v) {
+        buffer[position++] = (byte) (v >> 8);
+        buffer[position++] = (byte) v;
+    }
+
+    private void putInt(int v) {
+        buffer[position++] = (byte) (v >> 24);
+        buffer[position++] = (byte) (v >> 16);
+        buffer[position++] = (byte) (v >> 8);
+        buffer[position++] = (byte) v;
+    }
+
+    private void putLong(long v) {
+        putInt((int) (v >> 32));
+        putInt((int) v);
+    }
+}
@@ -21,12 +21,13 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.BufferOverflowException;
 
-public class ByteBufferOutput implements Output {
+public class ByteBufferOutput implements PatchableOutput {
     public static interface ExpandBufferCallback {
         ByteBuffer call(ByteBuffer buffer, int len) throws IOException;
     }
 
     private ByteBuffer buffer;
+    private int start;
     private ExpandBufferCallback callback;
 
     public ByteBufferOutput(ByteBuffer buffer) {
@@ -35,9 +36,32 @@ public class ByteBufferOutput implements Output {
 
     public ByteBufferOutput(ByteBuffer buffer, ExpandBufferCallback callback) {
         this.buffer = buffer;
+        this.start = buffer.position();
         this.callback = callback;
     }
 
+    /**
+     * Starts writing at the position of another buffer. The callback is
+     * kept.
+     */
+    public void reset(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.start = buffer.position();
+    }
+
+    /**
+     * Returns the number of bytes written so far. A buffer returned by the
+     * callback must keep the written bytes at the same positions.
+     */
+    public int getSize() {
+        return buffer.position() - start;
+    }
+
+    public void putByteAndInt(int pos, byte b, int v) {
+        buffer.put(start + pos, b);
+        buffer.putInt(start + pos + 1, v);
+    }
+
     private void reserve(int len) throws IOException {
         if(len <= buffer.remaining()) {
             return;
@@ -53,6 +77,19 @@ public class ByteBufferOutput implements Output {
         buffer.put(b, off, len);
     }
 
+    public void write(ByteBuffer bb) throws IOException {
+        reserve(bb.remaining());
+        buffer.put(bb.duplicate());
+    }
+
+    public void writeReference(byte[] b, int off, int len) throws IOException {
+        write(b, off, len);
+    }
+
+    public void writeReference(ByteBuffer bb) throws IOException {
+        write(bb);
+    }
+
     public void writeByte(byte v) throws IOException {
         reserve(1);
         buffer.put(v);
@@ -26,6 +26,13 @@ public interface Input {
 
     public byte readByte() throws IOException;
 
+    /**
+     * Returns a read-only view of the next len bytes and skips them, or
+     * null if the input cannot share its memory for them. The view is
+     * valid as long as the memory the input was given.
+     */
+    public ByteBuffer readSlice(int len) throws IOException;
+
     public void advance();
 
     public byte getByte() throws IOException;
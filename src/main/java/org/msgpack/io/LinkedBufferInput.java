@@ -74,6 +74,24 @@ public class LinkedBufferInput implements Input {
         return result;
     }
 
+    public ByteBuffer readSlice(int len) {
+        ByteBuffer bb = link.peekFirst();
+        if(bb == null || bb.remaining() < len) {
+            return null;
+        }
+        if(writable >= 0 && bb == link.peekLast()) {
+            // the buffer is reused for the bytes fed later
+            return null;
+        }
+        ByteBuffer slice = bb.slice();
+        slice.limit(len);
+        bb.position(bb.position() + len);
+        if(bb.remaining() == 0) {
+            removeFirstLink(bb);
+        }
+        return slice.asReadOnlyBuffer();
+    }
+
     public void advance() {
         if(link.isEmpty()) {
             return;
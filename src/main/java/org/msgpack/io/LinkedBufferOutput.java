@@ -17,35 +17,105 @@
 //
 package org.msgpack.io;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.util.Iterator;
 import java.util.List;
 import java.util.LinkedList;
 
-public class LinkedBufferOutput extends BufferedOutput {
+public class LinkedBufferOutput extends BufferedOutput implements PatchableOutput {
     private static class Link {
         final byte[] buffer;
         final int offset;
         final int size;
+        final boolean owned;
+        // set instead of buffer for a referenced direct buffer
+        final ByteBuffer ref;
 
-        Link(byte[] buffer, int offset, int size) {
+        Link(byte[] buffer, int offset, int size, boolean owned) {
             this.buffer = buffer;
             this.offset = offset;
             this.size = size;
+            this.owned = owned;
+            this.ref = null;
+        }
+
+        Link(ByteBuffer ref) {
+            this.buffer = null;
+            this.offset = 0;
+            this.size = ref.remaining();
+            this.owned = false;
+            this.ref = ref;
+        }
+
+        ByteBuffer toByteBuffer() {
+            if(ref != null) {
+                return ref.duplicate();
+            }
+            return ByteBuffer.wrap(buffer, offset, size);
         }
     }
 
     private LinkedList<Link> link;
     private int size;
+    private LinkedList<byte[]> free;
+    private int referenceThreshold;
 
     public LinkedBufferOutput(int bufferSize) {
         super(bufferSize);
         this.link = new LinkedList<Link>();
+        this.free = new LinkedList<byte[]>();
+        this.referenceThreshold = this.bufferSize;
+    }
+
+    /**
+     * Sets the length from which writeReference() links the caller's
+     * bytes instead of copying them. The default is the buffer size.
+     */
+    public void setReferenceThreshold(int referenceThreshold) {
+        this.referenceThreshold = referenceThreshold;
+    }
+
+    @Override
+    public void writeReference(byte[] b, int off, int len) throws IOException {
+        if(len < referenceThreshold) {
+            write(b, off, len);
+            return;
+        }
+        flush();
+        link.add(new Link(b, off, len, false));
+        size += len;
+    }
+
+    @Override
+    public void writeReference(ByteBuffer bb) throws IOException {
+        int len = bb.remaining();
+        if(len < referenceThreshold) {
+            write(bb);
+            return;
+        }
+        if(bb.hasArray()) {
+            writeReference(bb.array(), bb.arrayOffset() + bb.position(), len);
+            return;
+        }
+        flush();
+        link.add(new Link(bb.slice()));
+        size += len;
     }
 
     public byte[] toByteArray() {
         byte[] bytes = new byte[size+filled];
         int off = 0;
         for(Link l : link) {
-            System.arraycopy(l.buffer, l.offset, bytes, off, l.size);
+            if(l.ref != null) {
+                l.ref.duplicate().get(bytes, off, l.size);
+            } else {
+                System.arraycopy(l.buffer, l.offset, bytes, off, l.size);
+            }
             off += l.size;
         }
         if(filled > 0) {
@@ -54,12 +124,114 @@ public class LinkedBufferOutput extends BufferedOutput {
         return bytes;
     }
 
+    /**
+     * Returns the written bytes as a sequence of buffers that share the
+     * segments of this output. They are valid until reset().
+     */
+    public ByteBuffer[] toByteBuffers() {
+        ByteBuffer[] bufs = new ByteBuffer[link.size() + (filled > 0 ? 1 : 0)];
+        int i = 0;
+        for(Link l : link) {
+            bufs[i++] = l.toByteBuffer();
+        }
+        if(filled > 0) {
+            bufs[i] = ByteBuffer.wrap(buffer, 0, filled);
+        }
+        return bufs;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] chunk = null;
+        for(Link l : link) {
+            if(l.ref == null) {
+                out.write(l.buffer, l.offset, l.size);
+                continue;
+            }
+            if(chunk == null) {
+                chunk = new byte[bufferSize];
+            }
+            ByteBuffer src = l.ref.duplicate();
+            while(src.hasRemaining()) {
+                int n = Math.min(chunk.length, src.remaining());
+                src.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+        }
+        if(filled > 0) {
+            out.write(buffer, 0, filled);
+        }
+    }
+
+    /**
+     * Writes all the bytes to the channel with gathering writes. The
+     * channel must be in blocking mode; a non-blocking channel may accept
+     * no bytes and is rejected with IllegalBlockingModeException.
+     */
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        if(channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+            throw new IllegalBlockingModeException();
+        }
+        ByteBuffer[] bufs = toByteBuffers();
+        long remaining = getSize();
+        long written = 0;
+        while(written < remaining) {
+            written += channel.write(bufs);
+        }
+        return written;
+    }
+
+    /**
+     * Discards the written bytes. The segments allocated so far are
+     * kept and reused by the following writes.
+     */
+    public void reset() {
+        for(Link l : link) {
+            if(l.owned) {
+                free.add(l.buffer);
+            }
+        }
+        link.clear();
+        size = 0;
+        filled = 0;
+    }
+
     public int getSize() {
         return size + filled;
     }
 
+    public void putByteAndInt(int pos, byte b, int v) {
+        int start = size;
+        if(pos >= start) {
+            buffer[pos - start] = b;
+            castByteBuffer.putInt(pos - start + 1, v);
+            return;
+        }
+        // the 5 bytes never straddle segments as writeByteAndInt() reserves them at once
+        Iterator<Link> it = link.descendingIterator();
+        while(it.hasNext()) {
+            Link l = it.next();
+            start -= l.size;
+            if(pos >= start) {
+                int i = l.offset + pos - start;
+                l.buffer[i] = b;
+                ByteBuffer.wrap(l.buffer).putInt(i + 1, v);
+                return;
+            }
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    protected byte[] allocateBuffer() {
+        if(!free.isEmpty()) {
+            return free.removeFirst();
+        }
+        return super.allocateBuffer();
+    }
+
     protected boolean flushBuffer(byte[] buffer, int off, int len) {
-        link.add(new Link(buffer, off, len));
+        // large writes pass the caller's array, which must not be reused
+        link.add(new Link(buffer, off, len, buffer == this.buffer));
         size += len;
         return false;
     }
@@ -18,10 +18,25 @@
 package org.msgpack.io;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public interface Output {
     public void write(byte[] b, int off, int len) throws IOException;
 
+    /**
+     * Writes the remaining bytes of bb. The position of bb is not changed.
+     */
+    public void write(ByteBuffer bb) throws IOException;
+
+    /**
+     * Writes like write(b, off, len) but the output may keep a reference
+     * to b instead of copying it. b must not be modified until the
+     * written bytes are consumed.
+     */
+    public void writeReference(byte[] b, int off, int len) throws IOException;
+
+    public void writeReference(ByteBuffer bb) throws IOException;
+
     public void writeByte(byte v) throws IOException;
 
     public void writeShort(short v) throws IOException;
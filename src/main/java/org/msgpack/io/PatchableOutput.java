@@ -0,0 +1,36 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.io;
+
+import java.io.IOException;
+
+/**
+ * An output that can overwrite the bytes it has written, so that a packer
+ * can fill in a header after the body.
+ */
+public interface PatchableOutput extends Output {
+    /**
+     * Returns the number of bytes written so far.
+     */
+    public int getSize();
+
+    /**
+     * Overwrites the 5 bytes that a writeByteAndInt() call wrote at pos.
+     */
+    public void putByteAndInt(int pos, byte b, int v) throws IOException;
+}
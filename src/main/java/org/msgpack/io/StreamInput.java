@@ -57,6 +57,10 @@ public class StreamInput implements Input {
         return (byte)n;
     }
 
+    public ByteBuffer readSlice(int len) {
+        return null;
+    }
+
     public void advance() {
         filled = 0;
     }
@@ -20,6 +20,7 @@ package org.msgpack.io;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
 
 public class StreamOutput implements Output {
     private DataOutputStream out;
@@ -32,6 +33,28 @@ public class StreamOutput implements Output {
         out.write(b, off, len);
     }
 
+    public void write(ByteBuffer bb) throws IOException {
+        if(bb.hasArray()) {
+            out.write(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+            return;
+        }
+        ByteBuffer src = bb.duplicate();
+        byte[] chunk = new byte[Math.min(src.remaining(), 8192)];
+        while(src.hasRemaining()) {
+            int n = Math.min(chunk.length, src.remaining());
+            src.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+        }
+    }
+
+    public void writeReference(byte[] b, int off, int len) throws IOException {
+        write(b, off, len);
+    }
+
+    public void writeReference(ByteBuffer bb) throws IOException {
+        write(bb);
+    }
+
     public void writeByte(byte v) throws IOException {
         out.write(v);
     }
@@ -20,7 +20,10 @@ package org.msgpack.packer;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import org.msgpack.io.Output;
+import org.msgpack.io.PatchableOutput;
+import org.msgpack.MessagePack;
 import org.msgpack.MessageTypeException;
 
 abstract class AbstractMessagePackPacker extends Packer {
@@ -28,10 +31,48 @@ abstract class AbstractMessagePackPacker extends Packer {
 
     private PackerStack stack = new PackerStack();
 
+    private StringDictionary dictionary;
+
+    private int rawRemaining;
+
     protected AbstractMessagePackPacker(Output out) {
         this.out = out;
     }
 
+    protected AbstractMessagePackPacker(MessagePack msgpack, Output out) {
+        super(msgpack);
+        this.out = out;
+    }
+
+    /**
+     * Enables the string dictionary mode.
+     *
+     * Raws from 2 to 64 bytes long are numbered in the order they are
+     * written, and a string that is written again is encoded as a reference
+     * to its number (0xd4 + uint8 or 0xd5 + uint16) instead of the raw.
+     * The references use type bytes reserved by the MessagePack
+     * specification, so the stream must be read by an unpacker whose
+     * dictionary mode is enabled at the same position.
+     */
+    public void enableDictionary() {
+        if(dictionary == null) {
+            dictionary = new StringDictionary();
+        }
+    }
+
+    /**
+     * Forgets the open arrays and maps, the dictionary entries and the
+     * object references, for a packer that starts over on a new stream.
+     */
+    void resetState() {
+        stack.clear();
+        rawRemaining = 0;
+        if(dictionary != null) {
+            dictionary = new StringDictionary();
+        }
+        resetObjectReferences();
+    }
+
     @Override
     public void writeByte(byte d) throws IOException {
         if(d < -(1<<5)) {
@@ -147,7 +188,6 @@ abstract class AbstractMessagePackPacker extends Packer {
     public void writeBigInteger(BigInteger d) throws IOException {
         if(d.bitLength() <= 63) {
             writeLong(d.longValue());
-            stack.reduceCount();
         } else if(d.bitLength() == 64 && d.signum() == 1) {
             // unsigned 64
             out.writeByteAndLong((byte)0xcf, d.longValue());
@@ -189,19 +229,59 @@ abstract class AbstractMessagePackPacker extends Packer {
 
     @Override
     public void writeByteArray(byte[] b, int off, int len) throws IOException {
-        if(len < 32) {
-            out.writeByte((byte)(0xa0 | len));
-        } else if(len < 65536) {
-            out.writeByteAndShort((byte)0xda, (short)len);
-        } else {
-            out.writeByteAndInt((byte)0xdb, len);
+        writeRaw(b, off, len);
+        if(dictionary != null) {
+            dictionary.register(null, len);
+        }
+        stack.reduceCount();
+    }
+
+    @Override
+    public void writeByteArray(ByteBuffer bb) throws IOException {
+        int len = bb.remaining();
+        putRawHeader(len);
+        out.write(bb);
+        if(dictionary != null) {
+            dictionary.register(null, len);
+        }
+        stack.reduceCount();
+    }
+
+    @Override
+    public void writeByteArrayReference(byte[] b, int off, int len) throws IOException {
+        putRawHeader(len);
+        out.writeReference(b, off, len);
+        if(dictionary != null) {
+            dictionary.register(null, len);
+        }
+        stack.reduceCount();
+    }
+
+    @Override
+    public void writeByteArrayReference(ByteBuffer bb) throws IOException {
+        int len = bb.remaining();
+        putRawHeader(len);
+        out.writeReference(bb);
+        if(dictionary != null) {
+            dictionary.register(null, len);
         }
-        out.write(b, off, len);
         stack.reduceCount();
     }
 
     @Override
     public void writeString(String s) throws IOException {
+        if(dictionary != null) {
+            int index = dictionary.lookup(s);
+            if(index >= 0) {
+                if(index < 256) {
+                    out.writeByteAndByte((byte)0xd4, (byte)index);
+                } else {
+                    out.writeByteAndShort((byte)0xd5, (short)index);
+                }
+                stack.reduceCount();
+                return;
+            }
+        }
         // TODO encoding error
         byte[] b;
         try {
@@ -209,10 +289,63 @@ abstract class AbstractMessagePackPacker extends Packer {
         } catch (UnsupportedEncodingException ex) {
             throw new MessageTypeException();
         }
-        writeByteArray(b, 0, b.length);
+        writeRaw(b, 0, b.length);
+        if(dictionary != null) {
+            dictionary.register(s, b.length);
+        }
+        stack.reduceCount();
+    }
+
+    @Override
+    public void writePreEncoded(byte[] b, int off, int len, boolean validate) throws IOException {
+        if(validate) {
+            checkPreEncoded(b, off, len, null);
+        }
+        if(dictionary != null) {
+            // the unpacker numbers the raws in b as well
+            checkPreEncoded(b, off, len, dictionary);
+        }
+        out.write(b, off, len);
         stack.reduceCount();
     }
 
+    private void writeRaw(byte[] b, int off, int len) throws IOException {
+        putRawHeader(len);
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void writeRawHeader(int len) throws IOException {
+        if(rawRemaining > 0) {
+            throw new MessageTypeException("Previous raw body is not written yet");
+        }
+        putRawHeader(len);
+        rawRemaining = len;
+        if(dictionary != null) {
+            dictionary.register(null, len);
+        }
+        stack.reduceCount();
+    }
+
+    @Override
+    public void writeRawBody(byte[] b, int off, int len) throws IOException {
+        if(len > rawRemaining) {
+            throw new MessageTypeException("Raw body is longer than its header");
+        }
+        out.write(b, off, len);
+        rawRemaining -= len;
+    }
+
+    private void putRawHeader(int len) throws IOException {
+        if(len < 32) {
+            out.writeByte((byte)(0xa0 | len));
+        } else if(len < 65536) {
+            out.writeByteAndShort((byte)0xda, (short)len);
+        } else {
+            out.writeByteAndInt((byte)0xdb, len);
+        }
+    }
+
     @Override
     public void writeArrayBegin(int size) throws IOException {
         // TODO check size < 0?
@@ -228,12 +361,31 @@ abstract class AbstractMessagePackPacker extends Packer {
         stack.pushArray(size);
     }
 
+    @Override
+    public void writeArrayBegin() throws IOException {
+        if(!(out instanceof PatchableOutput)) {
+            super.writeArrayBegin();
+            return;
+        }
+        // the 5-byte header is patched with the size by writeArrayEnd()
+        int mark = ((PatchableOutput) out).getSize();
+        out.writeByteAndInt((byte)0xdd, 0);
+        stack.reduceCount();
+        stack.pushArrayWithoutSize(mark);
+    }
+
     @Override
     public void writeArrayEnd(boolean check) throws IOException {
         if(!stack.topIsArray()) {
             throw new MessageTypeException("writeArrayEnd() is called but writeArrayBegin() is not called");
         }
 
+        if(stack.topIsSizeUnknown()) {
+            ((PatchableOutput) out).putByteAndInt(stack.getTopMark(), (byte)0xdd, stack.getTopWritten());
+            stack.pop();
+            return;
+        }
+
         int remain = stack.getTopCount();
         if(remain > 0) {
             if(check) {
@@ -261,12 +413,34 @@ abstract class AbstractMessagePackPacker extends Packer {
         stack.pushMap(size);
     }
 
+    @Override
+    public void writeMapBegin() throws IOException {
+        if(!(out instanceof PatchableOutput)) {
+            super.writeMapBegin();
+            return;
+        }
+        int mark = ((PatchableOutput) out).getSize();
+        out.writeByteAndInt((byte)0xdf, 0);
+        stack.reduceCount();
+        stack.pushMapWithoutSize(mark);
+    }
+
     @Override
     public void writeMapEnd(boolean check) throws IOException {
         if(!stack.topIsMap()) {
             throw new MessageTypeException("writeMapEnd() is called but writeMapBegin() is not called");
         }
 
+        if(stack.topIsSizeUnknown()) {
+            int written = stack.getTopWritten();
+            if(written % 2 != 0) {
+                throw new MessageTypeException("writeMapEnd() is called but the last key has no value");
+            }
+            ((PatchableOutput) out).putByteAndInt(stack.getTopMark(), (byte)0xdf, written / 2);
+            stack.pop();
+            return;
+        }
+
         int remain = stack.getTopCount();
         if(remain > 0) {
             if(check) {
@@ -17,6 +17,10 @@
 //
 package org.msgpack.packer;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import org.msgpack.io.LinkedBufferOutput;
 
 public class BufferPacker extends AbstractMessagePackPacker {
@@ -32,5 +36,45 @@ public class BufferPacker extends AbstractMessagePackPacker {
         LinkedBufferOutput bo = (LinkedBufferOutput) out;
         return ((LinkedBufferOutput) bo).toByteArray();
     }
+
+    /**
+     * Returns the written bytes without concatenating them. The buffers
+     * share the memory of this packer and are valid until reset().
+     */
+    public ByteBuffer[] toByteBuffers() {
+        return ((LinkedBufferOutput) out).toByteBuffers();
+    }
+
+    public void writeTo(OutputStream stream) throws IOException {
+        ((LinkedBufferOutput) out).writeTo(stream);
+    }
+
+    /**
+     * Writes the packed bytes to a channel that is in blocking mode.
+     */
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        return ((LinkedBufferOutput) out).writeTo(channel);
+    }
+
+    /**
+     * Sets the length from which writeByteArrayReference() keeps a
+     * reference to the caller's bytes instead of copying them.
+     */
+    public void setReferenceThreshold(int referenceThreshold) {
+        ((LinkedBufferOutput) out).setReferenceThreshold(referenceThreshold);
+    }
+
+    public int getSize() {
+        return ((LinkedBufferOutput) out).getSize();
+    }
+
+    /**
+     * Discards the written bytes so that the packer can be used for the
+     * next message. The allocated buffers are reused.
+     */
+    public void reset() {
+        ((LinkedBufferOutput) out).reset();
+        resetState();
+    }
 }
 
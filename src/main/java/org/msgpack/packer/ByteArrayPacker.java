@@ -0,0 +1,56 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.packer;
+
+import org.msgpack.MessagePack;
+import org.msgpack.io.ByteArrayOutput;
+
+/**
+ * Writes into a region of a byte array. A write past the end of the
+ * region throws BufferFullException. One instance can be reused for
+ * many regions with reset.
+ */
+public class ByteArrayPacker extends AbstractMessagePackPacker {
+    public ByteArrayPacker(byte[] buffer) {
+        super(new ByteArrayOutput(buffer));
+    }
+
+    public ByteArrayPacker(byte[] buffer, int off, int len) {
+        super(new ByteArrayOutput(buffer, off, len));
+    }
+
+    public ByteArrayPacker(MessagePack msgpack, byte[] buffer, int off, int len) {
+        super(msgpack, new ByteArrayOutput(buffer, off, len));
+    }
+
+    /**
+     * Discards the state of the previous writes, including after a
+     * BufferFullException, and starts writing into another region.
+     */
+    public void reset(byte[] buffer, int off, int len) {
+        ((ByteArrayOutput) out).reset(buffer, off, len);
+        resetState();
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     */
+    public int getSize() {
+        return ((ByteArrayOutput) out).getSize();
+    }
+}
@@ -0,0 +1,54 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.packer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.msgpack.MessagePack;
+import org.msgpack.io.BufferFullException;
+import org.msgpack.io.ByteBufferOutput;
+
+/**
+ * Writes at the position of the buffer and advances it. The buffer must
+ * be big-endian. A write past its limit throws BufferFullException. One
+ * instance can be reused for many buffers with reset.
+ */
+public class ByteBufferPacker extends AbstractMessagePackPacker {
+    public ByteBufferPacker(ByteBuffer buffer) {
+        super(new ByteBufferOutput(buffer, FULL));
+    }
+
+    public ByteBufferPacker(MessagePack msgpack, ByteBuffer buffer) {
+        super(msgpack, new ByteBufferOutput(buffer, FULL));
+    }
+
+    /**
+     * Discards the state of the previous writes, including after a
+     * BufferFullException, and starts writing at the position of buffer.
+     */
+    public void reset(ByteBuffer buffer) {
+        ((ByteBufferOutput) out).reset(buffer);
+        resetState();
+    }
+
+    private static final ByteBufferOutput.ExpandBufferCallback FULL = new ByteBufferOutput.ExpandBufferCallback() {
+        public ByteBuffer call(ByteBuffer buffer, int len) throws IOException {
+            throw new BufferFullException();
+        }
+    };
+}
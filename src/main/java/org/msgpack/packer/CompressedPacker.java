@@ -0,0 +1,51 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.packer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.msgpack.io.BlockDeflaterOutput;
+
+public class CompressedPacker extends AbstractMessagePackPacker {
+    /**
+     * Uncompressed size of a block when none is given. Large enough for
+     * deflate to find repetitions across objects, small enough that the
+     * reader needs to buffer only one block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    public CompressedPacker(OutputStream stream) {
+        this(stream, DEFAULT_BLOCK_SIZE);
+    }
+
+    public CompressedPacker(OutputStream stream, int blockSize) {
+        super(new BlockDeflaterOutput(stream, blockSize));
+    }
+
+    public CompressedPacker(OutputStream stream, int blockSize, int level) {
+        super(new BlockDeflaterOutput(stream, blockSize, level));
+    }
+
+    public void flush() throws IOException {
+        ((BlockDeflaterOutput) out).flush();
+    }
+
+    public void close() throws IOException {
+        ((BlockDeflaterOutput) out).close();
+    }
+}
@@ -0,0 +1,134 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.packer;
+
+import org.msgpack.MessageTypeException;
+
+/**
+ * Finds the end of an encoded object without decoding it.
+ */
+final class EncodedObjectScanner {
+    private EncodedObjectScanner() { }
+
+    /**
+     * Returns the length of the object that starts at off. Raws are
+     * registered to dictionary if it is not null.
+     */
+    static int scan(byte[] b, int off, int len, StringDictionary dictionary) {
+        int end = off + len;
+        int p = off;
+        long pending = 1;
+        while(pending > 0) {
+            require(p, 1, end);
+            int t = b[p++] & 0xff;
+            pending--;
+            int n;
+            if(t <= 0x7f || t >= 0xe0) {  // Fixnum
+                continue;
+            } else if(t >= 0xa0 && t <= 0xbf) {  // FixRaw
+                n = t & 0x1f;
+            } else if(t >= 0x90 && t <= 0x9f) {  // FixArray
+                pending += t & 0x0f;
+                continue;
+            } else if(t >= 0x80 && t <= 0x8f) {  // FixMap
+                pending += (t & 0x0f) * 2;
+                continue;
+            } else {
+                switch(t) {
+                case 0xc0:  // nil
+                case 0xc2:  // false
+                case 0xc3:  // true
+                    continue;
+                case 0xcc:  // unsigned int  8
+                case 0xd0:  // signed int  8
+                    p = require(p, 1, end);
+                    continue;
+                case 0xcd:  // unsigned int 16
+                case 0xd1:  // signed int 16
+                    p = require(p, 2, end);
+                    continue;
+                case 0xca:  // float
+                case 0xce:  // unsigned int 32
+                case 0xd2:  // signed int 32
+                    p = require(p, 4, end);
+                    continue;
+                case 0xcb:  // double
+                case 0xcf:  // unsigned int 64
+                case 0xd3:  // signed int 64
+                    p = require(p, 8, end);
+                    continue;
+                case 0xda:  // raw 16
+                    require(p, 2, end);
+                    n = getShort(b, p);
+                    p += 2;
+                    break;
+                case 0xdb:  // raw 32
+                    require(p, 4, end);
+                    n = getInt(b, p);
+                    p += 4;
+                    if(n < 0) {
+                        throw new MessageTypeException("Raw size too large");
+                    }
+                    break;
+                case 0xdc:  // array 16
+                    require(p, 2, end);
+                    pending += getShort(b, p);
+                    p += 2;
+                    continue;
+                case 0xdd:  // array 32
+                    require(p, 4, end);
+                    pending += getInt(b, p) & 0xffffffffL;
+                    p += 4;
+                    continue;
+                case 0xde:  // map 16
+                    require(p, 2, end);
+                    pending += getShort(b, p) * 2L;
+                    p += 2;
+                    continue;
+                case 0xdf:  // map 32
+                    require(p, 4, end);
+                    pending += (getInt(b, p) & 0xffffffffL) * 2;
+                    p += 4;
+                    continue;
+                default:
+                    throw new MessageTypeException("Invalid byte: "+t);
+                }
+            }
+            p = require(p, n, end);
+            if(dictionary != null) {
+                dictionary.register(null, n);
+            }
+        }
+        return p - off;
+    }
+
+    private static int require(int p, int n, int end) {
+        if(end - p < n) {
+            throw new MessageTypeException("Encoded object is truncated");
+        }
+        return p + n;
+    }
+
+    private static int getShort(byte[] b, int p) {
+        return ((b[p] & 0xff) << 8) | (b[p+1] & 0xff);
+    }
+
+    private static int getInt(byte[] b, int p) {
+        return (getShort(b, p) << 16) | getShort(b, p+2);
+    }
+}
@@ -18,14 +18,38 @@
 package org.msgpack.packer;
 
 import java.math.BigInteger;
+import java.io.EOFException;
+import java.io.InputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import org.msgpack.value.Value;
 import org.msgpack.MessagePack;
+import org.msgpack.MessageTypeException;
 import org.msgpack.MessagePackable;
 
 public abstract class Packer {
-    protected MessagePack msgpack = new MessagePack();  // TODO initialize
+    protected MessagePack msgpack;
+
+    private Map<Object, Integer> objectIds;
+
+    protected Packer() {
+    }
+
+    /**
+     * Uses the templates of msgpack to write objects.
+     */
+    protected Packer(MessagePack msgpack) {
+        this.msgpack = msgpack;
+    }
+
+    private MessagePack getMessagePack() {
+        if(msgpack == null) {
+            msgpack = new MessagePack();
+        }
+        return msgpack;
+    }
 
     public abstract void writeNil() throws IOException;
 
@@ -51,12 +75,112 @@ public abstract class Packer {
 
     public abstract void writeByteArray(byte[] b, int off, int len) throws IOException;
 
-    //public abstract void writeByteArray(ByteBuffer b) throws IOException;
+    /**
+     * Writes the remaining bytes of bb as a raw. The position of bb is not
+     * changed.
+     */
+    public void writeByteArray(ByteBuffer bb) throws IOException {
+        if(bb.hasArray()) {
+            writeByteArray(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+            return;
+        }
+        byte[] b = new byte[bb.remaining()];
+        bb.duplicate().get(b);
+        writeByteArray(b);
+    }
+
+    /**
+     * Writes a raw like writeByteArray() but lets the packer keep a
+     * reference to b instead of copying it. b must not be modified until
+     * the packed bytes are consumed.
+     */
+    public void writeByteArrayReference(byte[] b, int off, int len) throws IOException {
+        writeByteArray(b, off, len);
+    }
+
+    public void writeByteArrayReference(byte[] b) throws IOException {
+        writeByteArrayReference(b, 0, b.length);
+    }
+
+    /**
+     * Writes the remaining bytes of bb as a raw, keeping a reference to
+     * them as writeByteArrayReference(byte[], int, int) does. The position
+     * of bb is not changed.
+     */
+    public void writeByteArrayReference(ByteBuffer bb) throws IOException {
+        if(bb.hasArray()) {
+            writeByteArrayReference(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+            return;
+        }
+        writeByteArray(bb);
+    }
+
+    /**
+     * Writes the header of a raw of len bytes. The body must follow as
+     * writeRawBody() calls that add up to len bytes, before any other
+     * value is written.
+     */
+    public abstract void writeRawHeader(int len) throws IOException;
+
+    public abstract void writeRawBody(byte[] b, int off, int len) throws IOException;
+
+    /**
+     * Writes the next len bytes of in as a raw without holding them in
+     * memory at once.
+     */
+    public void writeByteArray(InputStream in, int len) throws IOException {
+        writeRawHeader(len);
+        byte[] chunk = new byte[Math.min(len, 8192)];
+        int remain = len;
+        while(remain > 0) {
+            int n = in.read(chunk, 0, Math.min(chunk.length, remain));
+            if(n < 0) {
+                throw new EOFException();
+            }
+            writeRawBody(chunk, 0, n);
+            remain -= n;
+        }
+    }
 
     public abstract void writeString(String s) throws IOException;
 
+    public void writePreEncoded(byte[] b) throws IOException {
+        writePreEncoded(b, 0, b.length, false);
+    }
+
+    public void writePreEncoded(byte[] b, int off, int len) throws IOException {
+        writePreEncoded(b, off, len, false);
+    }
+
+    /**
+     * Writes one object that is already encoded in b as it is. If
+     * validate is true, b is checked to hold exactly one well-formed
+     * object first.
+     */
+    public void writePreEncoded(byte[] b, int off, int len, boolean validate) throws IOException {
+        if(validate) {
+            checkPreEncoded(b, off, len, null);
+        }
+        write(getMessagePack().read(b, off, len));
+    }
+
+    static void checkPreEncoded(byte[] b, int off, int len, StringDictionary dictionary) {
+        if(EncodedObjectScanner.scan(b, off, len, dictionary) != len) {
+            throw new MessageTypeException("Pre-encoded bytes hold more than one object");
+        }
+    }
+
     public abstract void writeArrayBegin(int size) throws IOException;
 
+    /**
+     * Begins an array whose size is counted as the elements are written
+     * and filled in by writeArrayEnd(). Only the packers that write into
+     * memory support it.
+     */
+    public void writeArrayBegin() throws IOException {
+        throw new UnsupportedOperationException("Array size is required by "+getClass().getName());
+    }
+
     public abstract void writeArrayEnd(boolean check) throws IOException;
 
     public void writeArrayEnd() throws IOException {
@@ -65,6 +189,14 @@ public abstract class Packer {
 
     public abstract void writeMapBegin(int size) throws IOException;
 
+    /**
+     * Begins a map whose size is counted as the entries are written and
+     * filled in by writeMapEnd(), like writeArrayBegin().
+     */
+    public void writeMapBegin() throws IOException {
+        throw new UnsupportedOperationException("Map size is required by "+getClass().getName());
+    }
+
     public abstract void writeMapEnd(boolean check) throws IOException;
 
     public void writeMapEnd() throws IOException {
@@ -72,8 +204,35 @@ public abstract class Packer {
     }
 
 
+    /**
+     * Used by graph templates. Returns the id of the object if it was
+     * already written, or -1 after assigning it the next id. Ids are
+     * assigned in write order and kept until resetObjectReferences().
+     */
+    public int putObjectReference(Object o) {
+        if(objectIds == null) {
+            objectIds = new IdentityHashMap<Object, Integer>();
+        }
+        Integer id = objectIds.get(o);
+        if(id != null) {
+            return id;
+        }
+        objectIds.put(o, objectIds.size());
+        return -1;
+    }
+
+    /**
+     * Forgets the objects written so far, e.g. between messages written
+     * to the same stream. The reader must reset at the same position.
+     */
+    public void resetObjectReferences() {
+        if(objectIds != null) {
+            objectIds.clear();
+        }
+    }
+
     public Packer write(Object o) throws IOException {
-        msgpack.getTemplate(o.getClass()).write(this, o);
+        getMessagePack().getTemplate(o.getClass()).write(this, o);
         return this;
     }
 
@@ -23,29 +23,70 @@ final class PackerStack {
     private int top;
     private byte[] types;
     private int[] counts;
+    private int[] marks;
 
     static final int MAX_STACK_SIZE = 128;
     private static final byte TYPE_INVALID = 0;
     private static final byte TYPE_ARRAY = 1;
     private static final byte TYPE_MAP = 2;
+    private static final int UNKNOWN_SIZE = Integer.MAX_VALUE;
 
     public PackerStack() {
         this.top = 0;
         this.types = new byte[MAX_STACK_SIZE];
         this.counts = new int[MAX_STACK_SIZE];
+        this.marks = new int[MAX_STACK_SIZE];
         this.types[0] = TYPE_INVALID;
     }
 
+    public void clear() {
+        top = 0;
+    }
+
     public void pushArray(int size) {
         top++;
         types[top] = TYPE_ARRAY;
         counts[top] = size;
+        marks[top] = -1;
     }
 
     public void pushMap(int size) {
         top++;
         types[top] = TYPE_MAP;
         counts[top] = size*2;
+        marks[top] = -1;
+    }
+
+    /**
+     * Pushes an array whose header is at mark and whose size is
+     * counted as its elements are written.
+     */
+    public void pushArrayWithoutSize(int mark) {
+        pushArray(UNKNOWN_SIZE);
+        marks[top] = mark;
+    }
+
+    public void pushMapWithoutSize(int mark) {
+        top++;
+        types[top] = TYPE_MAP;
+        counts[top] = UNKNOWN_SIZE;
+        marks[top] = mark;
+    }
+
+    public boolean topIsSizeUnknown() {
+        return marks[top] >= 0;
+    }
+
+    public int getTopMark() {
+        return marks[top];
+    }
+
+    /**
+     * Returns the number of elements written into the top array, or of
+     * keys and values written into the top map, whose size is unknown.
+     */
+    public int getTopWritten() {
+        return UNKNOWN_SIZE - counts[top];
     }
 
     public void checkCount() {
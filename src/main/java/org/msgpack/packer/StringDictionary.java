@@ -0,0 +1,59 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.packer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class StringDictionary {
+    static final int MIN_RAW_LENGTH = 2;
+    static final int MAX_RAW_LENGTH = 64;
+    static final int MAX_ENTRIES = 65536;
+
+    private final Map<String, Integer> map;
+    private int size;
+
+    StringDictionary() {
+        this.map = new HashMap<String, Integer>();
+        this.size = 0;
+    }
+
+    static boolean isRegistrable(int len) {
+        return MIN_RAW_LENGTH <= len && len <= MAX_RAW_LENGTH;
+    }
+
+    int lookup(String s) {
+        Integer index = map.get(s);
+        if(index == null) {
+            return -1;
+        }
+        return index;
+    }
+
+    // every registrable raw takes an index so that the unpacker
+    // can assign the same indexes without knowing its origin
+    void register(String s, int len) {
+        if(size >= MAX_ENTRIES || !isRegistrable(len)) {
+            return;
+        }
+        if(s != null && !map.containsKey(s)) {
+            map.put(s, size);
+        }
+        size++;
+    }
+}
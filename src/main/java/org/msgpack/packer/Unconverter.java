@@ -28,6 +28,8 @@ public class Unconverter extends Packer {
     private Object[] values;
     private Value result;
     private Value topContainer;
+    private byte[] raw;
+    private int rawFilled;
 
     public Unconverter() {
         this.stack = new PackerStack();
@@ -92,6 +94,36 @@ public class Unconverter extends Packer {
         put(ValueFactory.rawValue(b, off, len));
     }
 
+    @Override
+    public void writeRawHeader(int len) {
+        if(raw != null) {
+            throw new MessageTypeException("Previous raw body is not written yet");
+        }
+        raw = new byte[len];
+        rawFilled = 0;
+        if(len == 0) {
+            writeRawComplete();
+        }
+    }
+
+    @Override
+    public void writeRawBody(byte[] b, int off, int len) {
+        if(raw == null || raw.length - rawFilled < len) {
+            throw new MessageTypeException("Raw body is longer than its header");
+        }
+        System.arraycopy(b, off, raw, rawFilled, len);
+        rawFilled += len;
+        if(rawFilled == raw.length) {
+            writeRawComplete();
+        }
+    }
+
+    private void writeRawComplete() {
+        byte[] b = raw;
+        raw = null;
+        put(ValueFactory.rawValue(b, true));
+    }
+
     @Override
     public void writeString(String s) {
         put(ValueFactory.rawValue(s));
@@ -0,0 +1,97 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.msgpack.packer.Packer;
+import org.msgpack.unpacker.Unpacker;
+import org.msgpack.MessageTypeException;
+
+
+/**
+ * Writes an object as [type id, payload], where the type id is the index
+ * of its class in the registered subtypes. Reading dispatches on the id.
+ */
+public class PolymorphicTemplate implements Template {
+    private Class<?>[] types;
+
+    private Template[] templates;
+
+    private Map<Class<?>, Integer> typeIds;
+
+    /**
+     * The templates array may be filled in after construction, which lets
+     * subtypes refer back to the base type.
+     */
+    public PolymorphicTemplate(Class<?>[] types, Template[] templates) {
+        if(types.length != templates.length) {
+            throw new IllegalArgumentException("types and templates differ in length");
+        }
+        this.types = types;
+        this.templates = templates;
+        this.typeIds = new ConcurrentHashMap<Class<?>, Integer>();
+        for(int i=0; i < types.length; i++) {
+            typeIds.put(types[i], i);
+        }
+    }
+
+    public void write(Packer pk, Object target) throws IOException {
+        if(target == null) {
+            throw new MessageTypeException("Attempted to write null");
+        }
+        int id = getTypeId(target.getClass());
+        pk.writeArrayBegin(2);
+        pk.writeInt(id);
+        templates[id].write(pk, target);
+        pk.writeArrayEnd();
+    }
+
+    public Object read(Unpacker u, Object to) throws IOException {
+        if(u.readArrayBegin() != 2) {
+            throw new MessageTypeException("Expected [type id, payload]");
+        }
+        int id = u.readInt();
+        if(id < 0 || templates.length <= id) {
+            throw new MessageTypeException("Unknown type id: " + id);
+        }
+        if(to != null && to.getClass() != types[id]) {
+            to = null;
+        }
+        Object o = templates[id].read(u, to);
+        u.readArrayEnd();
+        return o;
+    }
+
+    private int getTypeId(Class<?> c) {
+        Integer id = typeIds.get(c);
+        if(id != null) {
+            return id;
+        }
+        // a subclass of a registered type is written as that type
+        for(Class<?> s = c.getSuperclass(); s != null; s = s.getSuperclass()) {
+            id = typeIds.get(s);
+            if(id != null) {
+                typeIds.put(c, id);
+                return id;
+            }
+        }
+        throw new MessageTypeException("Unregistered subtype: " + c.getName());
+    }
+}
@@ -17,16 +17,40 @@
 //
 package org.msgpack.template.builder;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
 
+import org.msgpack.MessageTypeException;
+import org.msgpack.packer.Packer;
 import org.msgpack.template.FieldList;
 import org.msgpack.template.FieldOption;
 import org.msgpack.template.Template;
 import org.msgpack.template.builder.TemplateBuildException;
+import org.msgpack.unpacker.Unpacker;
 
 
 public abstract class AbstractTemplateBuilder implements TemplateBuilder {
 
+    /**
+     * Template that only reads. Writing a partially decoded object would
+     * lose the fields that were skipped.
+     */
+    static class ProjectionTemplate implements Template {
+	private Template template;
+
+	ProjectionTemplate(Template template) {
+	    this.template = template;
+	}
+
+	public void write(Packer packer, Object target) throws IOException {
+	    throw new MessageTypeException("Projection templates are read-only");
+	}
+
+	public Object read(Unpacker unpacker, Object to) throws IOException, MessageTypeException {
+	    return template.read(unpacker, to);
+	}
+    }
+
     public FieldEntryReader getFieldEntryReader() {
 	throw new UnsupportedOperationException();
     }
@@ -34,10 +58,76 @@ public abstract class AbstractTemplateBuilder implements TemplateBuilder {
     @Override
     public Template buildTemplate(Type type) throws TemplateBuildException {
 	Class<?> c = (Class<?>) type;
+	return buildTemplate(c, readFieldEntries(c));
+    }
+
+    private FieldEntry[] readFieldEntries(Class<?> c) {
 	FieldEntryReader reader = getFieldEntryReader();
 	FieldOption implicitOption = reader.readImplicitFieldOption(c);
-	FieldEntry[] entries = reader.readFieldEntries(c, implicitOption);
-	return buildTemplate(c, entries);
+	return reader.readFieldEntries(c, implicitOption);
+    }
+
+    /**
+     * Builds a template that reads only the named fields. The other fields
+     * are skipped without being deserialized. The template cannot write.
+     */
+    public Template buildProjectionTemplate(Class<?> c, String[] fieldNames) throws TemplateBuildException {
+	FieldEntry[] entries = readFieldEntries(c);
+	boolean[] selected = new boolean[entries.length];
+	for (String name : fieldNames) {
+	    int i = 0;
+	    while (i < entries.length && !(entries[i].isAvailable() && entries[i].getName().equals(name))) {
+		i++;
+	    }
+	    if (i == entries.length) {
+		throw new TemplateBuildException("No such field: " + name + " in " + c.getName());
+	    }
+	    selected[i] = true;
+	}
+	return new ProjectionTemplate(buildProjectionTemplate(c, entries, selected));
+    }
+
+    /**
+     * Builds a template that reads only the fields at the given indexes.
+     * The other fields are skipped without being deserialized. The
+     * template cannot write.
+     */
+    public Template buildProjectionTemplate(Class<?> c, int[] indexes) throws TemplateBuildException {
+	FieldEntry[] entries = readFieldEntries(c);
+	boolean[] selected = new boolean[entries.length];
+	for (int index : indexes) {
+	    if (index < 0 || entries.length <= index || !entries[index].isAvailable()) {
+		throw new TemplateBuildException("No such field index: " + index + " in " + c.getName());
+	    }
+	    selected[index] = true;
+	}
+	return new ProjectionTemplate(buildProjectionTemplate(c, entries, selected));
+    }
+
+    /**
+     * Builds the template that reads the selected entries of a projection.
+     */
+    Template buildProjectionTemplate(Class<?> c, FieldEntry[] entries, boolean[] selected) {
+	return buildTemplate(c, projectFieldEntries(entries, selected));
+    }
+
+    private static FieldEntry[] projectFieldEntries(FieldEntry[] entries, boolean[] selected) {
+	// entries after the last selected one are dropped
+	int length = 0;
+	for (int i = 0; i < selected.length; i++) {
+	    if (selected[i]) {
+		length = i + 1;
+	    }
+	}
+	FieldEntry[] result = new FieldEntry[length];
+	for (int i = 0; i < length; i++) {
+	    if (selected[i]) {
+		result[i] = entries[i];
+	    } else {
+		result[i] = new FieldEntry();
+	    }
+	}
+	return result;
     }
 
     public Template buildTemplate(Class<?> c, FieldList flist) throws TemplateBuildException {
@@ -0,0 +1,76 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template.builder;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Type;
+
+import org.msgpack.MessageTypeException;
+import org.msgpack.template.FieldOption;
+
+
+public class BeansFieldEntry extends FieldEntry {
+    private PropertyDescriptor desc;
+
+    public BeansFieldEntry(final PropertyDescriptor desc, final FieldOption option) {
+	super(null, option);
+	this.desc = desc;
+    }
+
+    public PropertyDescriptor getPropertyDescriptor() {
+	return desc;
+    }
+
+    @Override
+    public String getName() {
+	return desc.getName();
+    }
+
+    @Override
+    public Class<?> getType() {
+	return desc.getPropertyType();
+    }
+
+    @Override
+    public Type getGenericType() {
+	return desc.getReadMethod().getGenericReturnType();
+    }
+
+    @Override
+    public Object get(Object target) {
+	try {
+	    return desc.getReadMethod().invoke(target);
+	} catch (IllegalAccessException e) {
+	    throw new MessageTypeException(e);
+	} catch (InvocationTargetException e) {
+	    throw new MessageTypeException(e.getCause());
+	}
+    }
+
+    @Override
+    public void set(Object target, Object value) {
+	try {
+	    desc.getWriteMethod().invoke(target, value);
+	} catch (IllegalAccessException e) {
+	    throw new MessageTypeException(e);
+	} catch (InvocationTargetException e) {
+	    throw new MessageTypeException(e.getCause());
+	}
+    }
+}
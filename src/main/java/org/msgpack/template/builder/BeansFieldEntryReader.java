@@ -0,0 +1,166 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template.builder;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.msgpack.annotation.Beans;
+import org.msgpack.annotation.Ignore;
+import org.msgpack.annotation.Index;
+import org.msgpack.annotation.MessagePackBeans;
+import org.msgpack.annotation.NotNullable;
+import org.msgpack.annotation.Optional;
+import org.msgpack.annotation.Required;
+import org.msgpack.template.FieldList;
+import org.msgpack.template.FieldOption;
+
+
+public class BeansFieldEntryReader extends FieldEntryReader {
+
+    @Override
+    public FieldEntry[] convertFieldEntries(Class<?> targetClass, FieldList flist) throws NoSuchFieldException {
+	PropertyDescriptor[] props = readPropertyDescriptors(targetClass);
+	List<FieldList.Entry> src = flist.getList();
+	FieldEntry[] result = new FieldEntry[src.size()];
+	for(int i=0; i < src.size(); i++) {
+	    FieldList.Entry s = src.get(i);
+	    if(s.isAvailable()) {
+		result[i] = new BeansFieldEntry(findPropertyDescriptor(props, s.getName()), s.getOption());
+	    } else {
+		result[i] = new FieldEntry();
+	    }
+	}
+	return result;
+    }
+
+    @Override
+    public FieldEntry[] readFieldEntries(Class<?> targetClass, FieldOption implicitOption) {
+	List<FieldEntry> entries = new ArrayList<FieldEntry>();
+	for(PropertyDescriptor p : readPropertyDescriptors(targetClass)) {
+	    FieldOption opt = readFieldOption(p, implicitOption);
+	    if(opt == FieldOption.IGNORE) {
+		// skip
+		continue;
+	    }
+	    entries.add(new BeansFieldEntry(p, opt));
+	}
+	return indexFieldEntries(entries);
+    }
+
+    @Override
+    protected Index readIndex(FieldEntry e) {
+	return getAnnotation(((BeansFieldEntry) e).getPropertyDescriptor(), Index.class);
+    }
+
+    @Override
+    public FieldOption readImplicitFieldOption(Class<?> targetClass) {
+	MessagePackBeans a = targetClass.getAnnotation(MessagePackBeans.class);
+	if(a != null) {
+	    return a.value();
+	}
+	Beans b = targetClass.getAnnotation(Beans.class);
+	if(b != null) {
+	    return b.value();
+	}
+	return FieldOption.DEFAULT;
+    }
+
+    private PropertyDescriptor[] readPropertyDescriptors(Class<?> targetClass) {
+	BeanInfo info;
+	try {
+	    info = Introspector.getBeanInfo(targetClass, Object.class);
+	} catch (IntrospectionException e) {
+	    throw new TemplateBuildException(e);
+	}
+	// only read-write properties, ordered by name
+	List<PropertyDescriptor> list = new ArrayList<PropertyDescriptor>();
+	for(PropertyDescriptor p : info.getPropertyDescriptors()) {
+	    if(p.getReadMethod() != null && p.getWriteMethod() != null) {
+		list.add(p);
+	    }
+	}
+	PropertyDescriptor[] result = list.toArray(new PropertyDescriptor[list.size()]);
+	Arrays.sort(result, new Comparator<PropertyDescriptor>() {
+	    public int compare(PropertyDescriptor a, PropertyDescriptor b) {
+		return a.getName().compareTo(b.getName());
+	    }
+	});
+	return result;
+    }
+
+    private static PropertyDescriptor findPropertyDescriptor(PropertyDescriptor[] props, String name) throws NoSuchFieldException {
+	for(PropertyDescriptor p : props) {
+	    if(p.getName().equals(name)) {
+		return p;
+	    }
+	}
+	throw new NoSuchFieldException(name);
+    }
+
+    private static FieldOption readFieldOption(PropertyDescriptor p, FieldOption implicitOption) {
+	if(isAnnotated(p, Ignore.class)) {
+	    return FieldOption.IGNORE;
+	} else if(isAnnotated(p, Required.class)) {
+	    return FieldOption.REQUIRED;
+	} else if(isAnnotated(p, Optional.class)) {
+	    return FieldOption.OPTIONAL;
+	} else if(isAnnotated(p, NotNullable.class)) {
+	    if(p.getPropertyType().isPrimitive()) {
+		return FieldOption.REQUIRED;
+	    } else {
+		return FieldOption.NOTNULLABLE;
+	    }
+	}
+
+	if(implicitOption != FieldOption.DEFAULT) {
+	    return implicitOption;
+	}
+
+	// default mode:
+	//   primitive : Required
+	//   others    : Optional
+	if(p.getPropertyType().isPrimitive()) {
+	    return FieldOption.REQUIRED;
+	} else {
+	    return FieldOption.OPTIONAL;
+	}
+    }
+
+    private static boolean isAnnotated(PropertyDescriptor p, Class<? extends Annotation> with) {
+	return getAnnotation(p, with) != null;
+    }
+
+    private static <T extends Annotation> T getAnnotation(PropertyDescriptor p, Class<T> with) {
+	// an annotation may be put on either the getter or the setter
+	Method getter = p.getReadMethod();
+	T a = getter.getAnnotation(with);
+	if(a != null) {
+	    return a;
+	}
+	return p.getWriteMethod().getAnnotation(with);
+    }
+}
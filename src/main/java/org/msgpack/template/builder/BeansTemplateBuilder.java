@@ -0,0 +1,236 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template.builder;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+
+import org.msgpack.TemplateRegistry;
+import org.msgpack.annotation.Beans;
+import org.msgpack.annotation.MessagePackBeans;
+import org.msgpack.template.Template;
+
+
+/**
+ * Builds templates that access JavaBeans properties through their getters
+ * and setters instead of fields. For a public class with a public
+ * no-argument constructor and public accessors, a template class is
+ * generated with javassist that calls the accessors directly and reads
+ * and writes primitive properties without boxing. Other classes get a
+ * template that invokes the accessors by reflection.
+ */
+public class BeansTemplateBuilder extends ReflectionTemplateBuilder {
+
+    private TemplateRegistry registry;
+
+    private FieldEntryReader reader = new BeansFieldEntryReader();
+
+    public BeansTemplateBuilder(TemplateRegistry registry) {
+	super(registry);
+	this.registry = registry;
+    }
+
+    @Override
+    public boolean matchType(Type targetType) {
+	if (!(targetType instanceof Class)) {
+	    return false;
+	}
+	Class<?> c = (Class<?>) targetType;
+	return c.getAnnotation(Beans.class) != null || c.getAnnotation(MessagePackBeans.class) != null;
+    }
+
+    @Override
+    public FieldEntryReader getFieldEntryReader() {
+	return reader;
+    }
+
+    @Override
+    public Template buildTemplate(Class<?> type, FieldEntry[] entries) {
+	if (entries == null) {
+	    throw new NullPointerException("entries is null: " + type);
+	}
+	if (canGenerate(type, entries)) {
+	    Template[] templates = new Template[entries.length];
+	    for (int i = 0; i < entries.length; i++) {
+		if (entries[i].isAvailable() && !entries[i].getType().isPrimitive()) {
+		    templates[i] = registry.lookup(entries[i].getGenericType());
+		}
+	    }
+	    try {
+		return generateTemplate(type, entries, templates);
+	    } catch (TemplateBuildException e) {
+		// javassist cannot compile or define the class; use reflection
+	    }
+	}
+	return super.buildTemplate(type, entries);
+    }
+
+    @Override
+    ReflectionFieldEntry[] toReflectionFieldEntries(FieldEntry[] entries) {
+	ReflectionFieldEntry[] res = new ReflectionFieldEntry[entries.length];
+	for (int i = 0; i < entries.length; i++) {
+	    FieldEntry e = entries[i];
+	    if (!e.isAvailable()) {
+		res[i] = new NullFieldEntry(e);
+	    } else {
+		Template tmpl = registry.lookup(e.getGenericType());
+		res[i] = new ObjectFieldEntry(e, tmpl);
+	    }
+	}
+	return res;
+    }
+
+    private static boolean canGenerate(Class<?> type, FieldEntry[] entries) {
+	if (!JavassistClassBuilder.canGenerate(type) || !JavassistClassBuilder.isVisible(type)
+		|| Modifier.isAbstract(type.getModifiers())) {
+	    return false;
+	}
+	try {
+	    if (!JavassistClassBuilder.isVisible(type.getConstructor())) {
+		return false;
+	    }
+	} catch (NoSuchMethodException e) {
+	    return false;
+	}
+	for (FieldEntry e : entries) {
+	    if (!e.isAvailable()) {
+		continue;
+	    }
+	    if (!(e instanceof BeansFieldEntry)) {
+		return false;
+	    }
+	    PropertyDescriptor desc = ((BeansFieldEntry) e).getPropertyDescriptor();
+	    Class<?> t = e.getType();
+	    if (!JavassistClassBuilder.isVisible(desc.getReadMethod())
+		    || !JavassistClassBuilder.isVisible(desc.getWriteMethod())
+		    || !JavassistClassBuilder.isVisible(t)
+		    || (t.isPrimitive() && JavassistClassBuilder.primitiveName(t) == null)) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    private static Template generateTemplate(Class<?> type, FieldEntry[] entries, Template[] templates) {
+	String typeName = JavassistClassBuilder.typeName(type);
+	int minimumArrayLength = 0;
+	for (int i = 0; i < entries.length; i++) {
+	    if (entries[i].isRequired() || entries[i].isNotNullable()) {
+		minimumArrayLength = i + 1;
+	    }
+	}
+
+	JavassistClassBuilder cb = new JavassistClassBuilder(type, "_$$_BeansTemplate");
+	cb.addInterface(Template.class);
+	cb.addField("private org.msgpack.template.Template[] templates;");
+	cb.addConstructor("public C(org.msgpack.template.Template[] templates) { this.templates = templates; }");
+
+	StringBuilder sb = new StringBuilder();
+	sb.append("public void write(org.msgpack.packer.Packer pk, Object o) throws java.io.IOException {\n");
+	sb.append("if (o == null) { throw new org.msgpack.MessageTypeException(\"Attempted to write null\"); }\n");
+	sb.append(typeName).append(" target = (").append(typeName).append(") o;\n");
+	sb.append("try {\n");
+	sb.append("pk.writeArrayBegin(").append(entries.length).append(");\n");
+	for (int i = 0; i < entries.length; i++) {
+	    FieldEntry e = entries[i];
+	    if (!e.isAvailable()) {
+		sb.append("pk.writeNil();\n");
+		continue;
+	    }
+	    String getter = "target." + ((BeansFieldEntry) e).getPropertyDescriptor().getReadMethod().getName() + "()";
+	    String primitive = JavassistClassBuilder.primitiveName(e.getType());
+	    if (primitive != null) {
+		sb.append("pk.write").append(primitive).append("(").append(getter).append(");\n");
+	    } else {
+		sb.append("Object v").append(i).append(" = ").append(getter).append(";\n");
+		sb.append("if (v").append(i).append(" == null) {\n");
+		if (!e.isNotNullable() && !e.isOptional()) {
+		    sb.append("throw new org.msgpack.MessageTypeException();\n");
+		} else {
+		    sb.append("pk.writeNil();\n");
+		}
+		sb.append("} else {\n");
+		sb.append("templates[").append(i).append("].write(pk, v").append(i).append(");\n");
+		sb.append("}\n");
+	    }
+	}
+	sb.append("pk.writeArrayEnd();\n");
+	JavassistClassBuilder.appendCatch(sb);
+	sb.append("}\n");
+	cb.addMethod(sb.toString());
+
+	sb = new StringBuilder();
+	sb.append("public Object read(org.msgpack.unpacker.Unpacker u, Object to) throws java.io.IOException {\n");
+	sb.append(typeName).append(" target;\n");
+	sb.append("if (to == null) { target = new ").append(typeName).append("(); } else { target = (")
+		.append(typeName).append(") to; }\n");
+	sb.append("try {\n");
+	sb.append("int length = u.readArrayBegin();\n");
+	sb.append("if (length < ").append(minimumArrayLength).append(") { throw new org.msgpack.MessageTypeException(); }\n");
+	for (int i = 0; i < entries.length; i++) {
+	    FieldEntry e = entries[i];
+	    if (i >= minimumArrayLength) {
+		sb.append("if (length > ").append(i).append(") {\n");
+	    }
+	    if (!e.isAvailable()) {
+		sb.append("u.skip();\n");
+	    } else {
+		PropertyDescriptor desc = ((BeansFieldEntry) e).getPropertyDescriptor();
+		String getter = "target." + desc.getReadMethod().getName() + "()";
+		String setter = "target." + desc.getWriteMethod().getName();
+		String propertyType = JavassistClassBuilder.typeName(e.getType());
+		String primitive = JavassistClassBuilder.primitiveName(e.getType());
+		sb.append("if (u.tryReadNil()) {\n");
+		if (i < minimumArrayLength && e.isRequired()) {
+		    // Required + nil => exception
+		    sb.append("throw new org.msgpack.MessageTypeException();\n");
+		} else if (i < minimumArrayLength && e.isNotNullable()) {
+		    // Nullable + nil => set null
+		    if (primitive != null) {
+			sb.append("throw new org.msgpack.MessageTypeException();\n");
+		    } else {
+			sb.append(setter).append("((").append(propertyType).append(") null);\n");
+		    }
+		}
+		// Optional + nil => keep default value
+		sb.append("} else {\n");
+		if (primitive != null) {
+		    sb.append(setter).append("(u.read").append(primitive).append("());\n");
+		} else {
+		    sb.append("Object f").append(i).append(" = ").append(getter).append(";\n");
+		    sb.append("Object v").append(i).append(" = templates[").append(i).append("].read(u, f").append(i).append(");\n");
+		    sb.append("if (v").append(i).append(" != f").append(i).append(") { ").append(setter).append("((")
+			    .append(propertyType).append(") v").append(i).append("); }\n");
+		}
+		sb.append("}\n");
+	    }
+	    if (i >= minimumArrayLength) {
+		sb.append("}\n");
+	    }
+	}
+	sb.append("for (int i = ").append(entries.length).append("; i < length; i++) { u.skip(); }\n");
+	sb.append("u.readArrayEnd();\n");
+	JavassistClassBuilder.appendCatch(sb);
+	sb.append("return target;\n");
+	sb.append("}\n");
+	cb.addMethod(sb.toString());
+
+	return (Template) cb.newInstance(templates);
+    }
+}
@@ -0,0 +1,477 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template.builder;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.msgpack.MessageTypeException;
+import org.msgpack.packer.Packer;
+import org.msgpack.template.Template;
+import org.msgpack.unpacker.Unpacker;
+
+
+/**
+ * Template that writes a List of objects column by column.
+ *
+ * The serialized form is an array of (1 + number of fields) elements. The
+ * first element is the number of rows and each following element is the
+ * column of one field. Columns of numeric primitive fields are written as a
+ * raw of big-endian fixed-width values, other columns are written as arrays.
+ */
+public class ColumnarTemplate implements Template {
+
+    static abstract class Column extends FieldEntry {
+	Column(FieldEntry e) {
+	    super(e.getField(), e.getOption());
+	}
+
+	public abstract void write(Packer packer, List<?> rows) throws IOException, IllegalAccessException;
+
+	public abstract Object read(Unpacker unpacker) throws IOException;
+
+	public abstract void set(List<?> rows, Object column) throws IllegalAccessException;
+    }
+
+    static class NullColumn extends Column {
+	NullColumn(FieldEntry e) {
+	    super(e);
+	}
+
+	public void write(Packer packer, List<?> rows) throws IOException {
+	    packer.writeNil();
+	}
+
+	public Object read(Unpacker unpacker) throws IOException {
+	    unpacker.skip();
+	    return null;
+	}
+
+	public void set(List<?> rows, Object column) {
+	}
+    }
+
+    static class ObjectColumn extends Column {
+	private Template template;
+
+	ObjectColumn(FieldEntry e, Template template) {
+	    super(e);
+	    this.template = template;
+	}
+
+	public void write(Packer packer, List<?> rows) throws IOException, IllegalAccessException {
+	    Field f = getField();
+	    packer.writeArrayBegin(rows.size());
+	    for (Object row : rows) {
+		Object obj = f.get(row);
+		if (obj == null) {
+		    if (!isNotNullable() && !isOptional()) {
+			throw new MessageTypeException();
+		    }
+		    packer.writeNil();
+		} else {
+		    template.write(packer, obj);
+		}
+	    }
+	    packer.writeArrayEnd();
+	}
+
+	public Object read(Unpacker unpacker) throws IOException {
+	    int n = unpacker.readArrayBegin();
+	    Object[] column = new Object[n];
+	    for (int i = 0; i < n; i++) {
+		if (unpacker.tryReadNil()) {
+		    if (isRequired()) {
+			// Required + nil => exception
+			throw new MessageTypeException();
+		    }
+		} else {
+		    column[i] = template.read(unpacker, null);
+		}
+	    }
+	    unpacker.readArrayEnd();
+	    return column;
+	}
+
+	public void set(List<?> rows, Object column) throws IllegalAccessException {
+	    Field f = getField();
+	    Object[] array = (Object[]) column;
+	    for (int i = 0; i < array.length; i++) {
+		if (array[i] != null || !isOptional()) {
+		    f.set(rows.get(i), array[i]);
+		}
+	    }
+	}
+    }
+
+    static class BooleanColumn extends Column {
+	BooleanColumn(FieldEntry e) {
+	    super(e);
+	}
+
+	public void write(Packer packer, List<?> rows) throws IOException, IllegalAccessException {
+	    Field f = getField();
+	    byte[] bytes = new byte[rows.size()];
+	    for (int i = 0; i < bytes.length; i++) {
+		bytes[i] = f.getBoolean(rows.get(i)) ? (byte) 1 : (byte) 0;
+	    }
+	    packer.writeByteArray(bytes);
+	}
+
+	public Object read(Unpacker unpacker) throws IOException {
+	    byte[] bytes = unpacker.readByteArray();
+	    boolean[] column = new boolean[bytes.length];
+	    for (int i = 0; i < bytes.length; i++) {
+		column[i] = bytes[i] != 0;
+	    }
+	    return column;
+	}
+
+	public void set(List<?> rows, Object column) throws IllegalAccessException {
+	    Field f = getField();
+	    boolean[] array = (boolean[]) column;
+	    for (int i = 0; i < array.length; i++) {
+		f.setBoolean(rows.get(i), array[i]);
+	    }
+	}
+    }
+
+    static class ByteColumn extends Column {
+	ByteColumn(FieldEntry e) {
+	    super(e);
+	}
+
+	public void write(Packer packer, List<?> rows) throws IOException, IllegalAccessException {
+	    Field f = getField();
+	    byte[] bytes = new byte[rows.size()];
+	    for (int i = 0; i < bytes.length; i++) {
+		bytes[i] = f.getByte(rows.get(i));
+	    }
+	    packer.writeByteArray(bytes);
+	}
+
+	public Object read(Unpacker unpacker) throws IOException {
+	    return unpacker.readByteArray();
+	}
+
+	public void set(List<?> rows, Object column) throws IllegalAccessException {
+	    Field f = getField();
+	    byte[] array = (byte[]) column;
+	    for (int i = 0; i < array.length; i++) {
+		f.setByte(rows.get(i), array[i]);
+	    }
+	}
+    }
+
+    static class ShortColumn extends Column {
+	ShortColumn(FieldEntry e) {
+	    super(e);
+	}
+
+	public void write(Packer packer, List<?> rows) throws IOException, IllegalAccessException {
+	    Field f = getField();
+	    short[] array = new short[rows.size()];
+	    for (int i = 0; i < array.length; i++) {
+		array[i] = f.getShort(rows.get(i));
+	    }
+	    byte[] bytes = new byte[array.length * 2];
+	    ByteBuffer.wrap(bytes).asShortBuffer().put(array);
+	    packer.writeByteArray(bytes);
+	}
+
+	public Object read(Unpacker unpacker) throws IOException {
+	    byte[] bytes = readColumnBytes(unpacker, 2);
+	    short[] column = new short[bytes.length / 2];
+	    ByteBuffer.wrap(bytes).asShortBuffer().get(column);
+	    return column;
+	}
+
+	public void set(List<?> rows, Object column) throws IllegalAccessException {
+	    Field f = getField();
+	    short[] array = (short[]) column;
+	    for (int i = 0; i < array.length; i++) {
+		f.setShort(rows.get(i), array[i]);
+	    }
+	}
+    }
+
+    static class IntColumn extends Column {
+	IntColumn(FieldEntry e) {
+	    super(e);
+	}
+
+	public void write(Packer packer, List<?> rows) throws IOException, IllegalAccessException {
+	    Field f = getField();
+	    int[] array = new int[rows.size()];
+	    for (int i = 0; i < array.length; i++) {
+		array[i] = f.getInt(rows.get(i));
+	    }
+	    byte[] bytes = new byte[array.length * 4];
+	    ByteBuffer.wrap(bytes).asIntBuffer().put(array);
+	    packer.writeByteArray(bytes);
+	}
+
+	public Object read(Unpacker unpacker) throws IOException {
+	    byte[] bytes = readColumnBytes(unpacker, 4);
+	    int[] column = new int[bytes.length / 4];
+	    ByteBuffer.wrap(bytes).asIntBuffer().get(column);
+	    return column;
+	}
+
+	public void set(List<?> rows, Object column) throws IllegalAccessException {
+	    Field f = getField();
+	    int[] array = (int[]) column;
+	    for (int i = 0; i < array.length; i++) {
+		f.setInt(rows.get(i), array[i]);
+	    }
+	}
+    }
+
+    static class LongColumn extends Column {
+	LongColumn(FieldEntry e) {
+	    super(e);
+	}
+
+	public void write(Packer packer, List<?> rows) throws IOException, IllegalAccessException {
+	    Field f = getField();
+	    long[] array = new long[rows.size()];
+	    for (int i = 0; i < array.length; i++) {
+		array[i] = f.getLong(rows.get(i));
+	    }
+	    byte[] bytes = new byte[array.length * 8];
+	    ByteBuffer.wrap(bytes).asLongBuffer().put(array);
+	    packer.writeByteArray(bytes);
+	}
+
+	public Object read(Unpacker unpacker) throws IOException {
+	    byte[] bytes = readColumnBytes(unpacker, 8);
+	    long[] column = new long[bytes.length / 8];
+	    ByteBuffer.wrap(bytes).asLongBuffer().get(column);
+	    return column;
+	}
+
+	public void set(List<?> rows, Object column) throws IllegalAccessException {
+	    Field f = getField();
+	    long[] array = (long[]) column;
+	    for (int i = 0; i < array.length; i++) {
+		f.setLong(rows.get(i), array[i]);
+	    }
+	}
+    }
+
+    static class FloatColumn extends Column {
+	FloatColumn(FieldEntry e) {
+	    super(e);
+	}
+
+	public void write(Packer packer, List<?> rows) throws IOException, IllegalAccessException {
+	    Field f = getField();
+	    float[] array = new float[rows.size()];
+	    for (int i = 0; i < array.length; i++) {
+		array[i] = f.getFloat(rows.get(i));
+	    }
+	    byte[] bytes = new byte[array.length * 4];
+	    ByteBuffer.wrap(bytes).asFloatBuffer().put(array);
+	    packer.writeByteArray(bytes);
+	}
+
+	public Object read(Unpacker unpacker) throws IOException {
+	    byte[] bytes = readColumnBytes(unpacker, 4);
+	    float[] column = new float[bytes.length / 4];
+	    ByteBuffer.wrap(bytes).asFloatBuffer().get(column);
+	    return column;
+	}
+
+	public void set(List<?> rows, Object column) throws IllegalAccessException {
+	    Field f = getField();
+	    float[] array = (float[]) column;
+	    for (int i = 0; i < array.length; i++) {
+		f.setFloat(rows.get(i), array[i]);
+	    }
+	}
+    }
+
+    static class DoubleColumn extends Column {
+	DoubleColumn(FieldEntry e) {
+	    super(e);
+	}
+
+	public void write(Packer packer, List<?> rows) throws IOException, IllegalAccessException {
+	    Field f = getField();
+	    double[] array = new double[rows.size()];
+	    for (int i = 0; i < array.length; i++) {
+		array[i] = f.getDouble(rows.get(i));
+	    }
+	    byte[] bytes = new byte[array.length * 8];
+	    ByteBuffer.wrap(bytes).asDoubleBuffer().put(array);
+	    packer.writeByteArray(bytes);
+	}
+
+	public Object read(Unpacker unpacker) throws IOException {
+	    byte[] bytes = readColumnBytes(unpacker, 8);
+	    double[] column = new double[bytes.length / 8];
+	    ByteBuffer.wrap(bytes).asDoubleBuffer().get(column);
+	    return column;
+	}
+
+	public void set(List<?> rows, Object column) throws IllegalAccessException {
+	    Field f = getField();
+	    double[] array = (double[]) column;
+	    for (int i = 0; i < array.length; i++) {
+		f.setDouble(rows.get(i), array[i]);
+	    }
+	}
+    }
+
+    private static byte[] readColumnBytes(Unpacker unpacker, int width) throws IOException {
+	byte[] bytes = unpacker.readByteArray();
+	if (bytes.length % width != 0) {
+	    throw new MessageTypeException("Invalid column length: " + bytes.length);
+	}
+	return bytes;
+    }
+
+    private Class<?> targetClass;
+
+    private Column[] columns;
+
+    ColumnarTemplate(Class<?> targetClass, Column[] columns) {
+	this.targetClass = targetClass;
+	this.columns = columns;
+    }
+
+    public int getColumnIndex(String name) {
+	for (int i = 0; i < columns.length; i++) {
+	    if (columns[i].isAvailable() && columns[i].getName().equals(name)) {
+		return i;
+	    }
+	}
+	throw new IllegalArgumentException("No such column: " + name);
+    }
+
+    public void write(Packer packer, Object target) throws IOException {
+	if (!(target instanceof List)) {
+	    if (target == null) {
+		throw new MessageTypeException("Attempted to write null");
+	    }
+	    throw new MessageTypeException("Target is not a List but " + target.getClass());
+	}
+	List<?> rows = (List<?>) target;
+	try {
+	    packer.writeArrayBegin(columns.length + 1);
+	    packer.writeInt(rows.size());
+	    for (Column c : columns) {
+		c.write(packer, rows);
+	    }
+	    packer.writeArrayEnd();
+	} catch (MessageTypeException e) {
+	    throw e;
+	} catch (IOException e) {
+	    throw e;
+	} catch (Exception e) {
+	    throw new MessageTypeException(e);
+	}
+    }
+
+    public Object read(Unpacker unpacker, Object to) throws IOException {
+	try {
+	    int n = readRowCount(unpacker);
+	    List<Object> rows;
+	    if (to != null) {
+		@SuppressWarnings("unchecked")
+		List<Object> list = (List<Object>) to;
+		rows = list;
+		rows.clear();
+	    } else {
+		rows = new ArrayList<Object>(n);
+	    }
+	    for (int i = 0; i < n; i++) {
+		rows.add(targetClass.newInstance());
+	    }
+	    for (Column c : columns) {
+		Object column = c.read(unpacker);
+		if (column != null) {
+		    checkColumnLength(column, n);
+		    c.set(rows, column);
+		}
+	    }
+	    unpacker.readArrayEnd();
+	    return rows;
+	} catch (MessageTypeException e) {
+	    throw e;
+	} catch (IOException e) {
+	    throw e;
+	} catch (Exception e) {
+	    throw new MessageTypeException(e);
+	}
+    }
+
+    /**
+     * Reads the columns without instantiating the target class. Columns of
+     * primitive fields are returned as primitive arrays such as int[] or
+     * double[], other columns as Object[].
+     *
+     * @param names names of the columns to read. All columns are read if
+     *        no name is given. The other columns are skipped and null.
+     */
+    public Object[] readColumns(Unpacker unpacker, String... names) throws IOException {
+	boolean[] selected = new boolean[columns.length];
+	if (names.length == 0) {
+	    for (int i = 0; i < selected.length; i++) {
+		selected[i] = true;
+	    }
+	} else {
+	    for (String name : names) {
+		selected[getColumnIndex(name)] = true;
+	    }
+	}
+
+	int n = readRowCount(unpacker);
+	Object[] result = new Object[columns.length];
+	for (int i = 0; i < columns.length; i++) {
+	    if (selected[i]) {
+		result[i] = columns[i].read(unpacker);
+		if (result[i] != null) {
+		    checkColumnLength(result[i], n);
+		}
+	    } else {
+		unpacker.skip();
+	    }
+	}
+	unpacker.readArrayEnd();
+	return result;
+    }
+
+    private int readRowCount(Unpacker unpacker) throws IOException {
+	int length = unpacker.readArrayBegin();
+	if (length != columns.length + 1) {
+	    throw new MessageTypeException("Invalid number of columns: " + (length - 1));
+	}
+	return unpacker.readInt();
+    }
+
+    private static void checkColumnLength(Object column, int n) {
+	if (Array.getLength(column) != n) {
+	    throw new MessageTypeException("Invalid column length: " + Array.getLength(column));
+	}
+    }
+}
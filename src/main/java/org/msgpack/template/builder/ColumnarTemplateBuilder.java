@@ -0,0 +1,93 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template.builder;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+
+import org.msgpack.TemplateRegistry;
+import org.msgpack.template.Template;
+
+
+public class ColumnarTemplateBuilder extends AbstractTemplateBuilder {
+
+    private TemplateRegistry registry;
+
+    private FieldEntryReader reader = new FieldEntryReader();
+
+    public ColumnarTemplateBuilder(TemplateRegistry registry) {
+	this.registry = registry;
+    }
+
+    public boolean matchType(Type targetType) {
+	return targetType instanceof Class;
+    }
+
+    @Override
+    public FieldEntryReader getFieldEntryReader() {
+	return reader;
+    }
+
+    @Override
+    public Template buildTemplate(Class<?> type, FieldEntry[] entries) {
+	if (entries == null) {
+	    throw new NullPointerException("entries is null: " + type);
+	}
+
+	for (FieldEntry e : entries) {
+	    if (!e.isAvailable()) {
+		continue;
+	    }
+	    Field f = e.getField();
+	    int mod = f.getModifiers();
+	    if (!Modifier.isPublic(mod)) {
+		f.setAccessible(true);
+	    }
+	}
+
+	ColumnarTemplate.Column[] res = new ColumnarTemplate.Column[entries.length];
+	for (int i = 0; i < entries.length; i++) {
+	    FieldEntry e = entries[i];
+	    if (!e.isAvailable()) {
+		res[i] = new ColumnarTemplate.NullColumn(e);
+		continue;
+	    }
+	    Class<?> t = e.getType();
+	    if (t.equals(boolean.class)) {
+		res[i] = new ColumnarTemplate.BooleanColumn(e);
+	    } else if (t.equals(byte.class)) {
+		res[i] = new ColumnarTemplate.ByteColumn(e);
+	    } else if (t.equals(short.class)) {
+		res[i] = new ColumnarTemplate.ShortColumn(e);
+	    } else if (t.equals(int.class)) {
+		res[i] = new ColumnarTemplate.IntColumn(e);
+	    } else if (t.equals(long.class)) {
+		res[i] = new ColumnarTemplate.LongColumn(e);
+	    } else if (t.equals(float.class)) {
+		res[i] = new ColumnarTemplate.FloatColumn(e);
+	    } else if (t.equals(double.class)) {
+		res[i] = new ColumnarTemplate.DoubleColumn(e);
+	    } else {
+		Template tmpl = registry.lookup(e.getGenericType());
+		res[i] = new ColumnarTemplate.ObjectColumn(e, tmpl);
+	    }
+	}
+	return new ColumnarTemplate(type, res);
+    }
+}
@@ -0,0 +1,434 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template.builder;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+
+import org.msgpack.MessageTypeException;
+import org.msgpack.TemplateRegistry;
+import org.msgpack.annotation.Creator;
+import org.msgpack.packer.Packer;
+import org.msgpack.template.Template;
+import org.msgpack.unpacker.Unpacker;
+
+
+/**
+ * Builds templates for classes that have a constructor or a static factory
+ * method annotated with @Creator. Fields are read into arguments and
+ * passed to the creator, so the class needs neither a no-argument
+ * constructor nor non-final fields. The parameters of the creator must
+ * match the serialized fields in index order.
+ *
+ * If the class, the creator, its parameter types and the fields are
+ * public, the template is a class generated with javassist. Its write reads
+ * the fields directly, and its read keeps each argument in a local of its
+ * parameter type, so primitive fields are not boxed, and calls the creator
+ * directly. Otherwise the fields are read by reflection, the arguments are
+ * collected in an Object array and the creator is invoked by reflection,
+ * which boxes the primitive arguments.
+ */
+public class CreatorTemplateBuilder extends ReflectionTemplateBuilder {
+
+    static class CreatorTemplate extends ReflectionTemplate {
+	private Constructor<?> constructor;
+
+	private Method factoryMethod;
+
+	// argument position of each entry, or -1 for unavailable entries
+	private int[] argIndexes;
+
+	private Object[] defaultArgs;
+
+	// generated template, or null to use reflection
+	private Template generated;
+
+	CreatorTemplate(Class<?> targetClass, ReflectionFieldEntry[] entries, int[] argIndexes,
+		Constructor<?> constructor, Method factoryMethod, Class<?>[] paramTypes, Template generated) {
+	    super(targetClass, entries);
+	    this.constructor = constructor;
+	    this.factoryMethod = factoryMethod;
+	    this.argIndexes = argIndexes;
+	    this.generated = generated;
+	    defaultArgs = new Object[paramTypes.length];
+	    for (int i = 0; i < paramTypes.length; i++) {
+		if (paramTypes[i].isPrimitive()) {
+		    defaultArgs[i] = Array.get(Array.newInstance(paramTypes[i], 1), 0);
+		}
+	    }
+	}
+
+	Template getGenerated() {
+	    return generated;
+	}
+
+	@Override
+	public void write(Packer packer, Object target) throws IOException {
+	    if (generated != null) {
+		generated.write(packer, target);
+	    } else {
+		super.write(packer, target);
+	    }
+	}
+
+	@Override
+	public Object read(Unpacker unpacker, Object to) throws IOException, MessageTypeException {
+	    if (generated != null) {
+		return generated.read(unpacker, to);
+	    }
+
+	    Object[] args = defaultArgs.clone();
+
+	    int length = unpacker.readArrayBegin();
+	    if (length < minimumArrayLength) {
+		throw new MessageTypeException();
+	    }
+
+	    int max = length < entries.length ? length : entries.length;
+	    int i;
+	    for (i = 0; i < max; ++i) {
+		ReflectionFieldEntry e = entries[i];
+		if (!e.isAvailable()) {
+		    unpacker.skip();
+		    continue;
+		}
+
+		if (unpacker.tryReadNil()) {
+		    if (e.isRequired() && i < minimumArrayLength) {
+			// Required + nil => exception
+			throw new MessageTypeException();
+		    }
+		    // otherwise keep the default argument
+		} else {
+		    args[argIndexes[i]] = ((ObjectFieldEntry) e).getTemplate().read(unpacker, null);
+		}
+	    }
+
+	    // latter entries are all Optional + nil => keep default value
+	    for (; i < length; ++i) {
+		unpacker.skip();
+	    }
+	    unpacker.readArrayEnd();
+
+	    try {
+		if (constructor != null) {
+		    return constructor.newInstance(args);
+		} else {
+		    return factoryMethod.invoke(null, args);
+		}
+	    } catch (InstantiationException e) {
+		throw new MessageTypeException(e);
+	    } catch (IllegalAccessException e) {
+		throw new MessageTypeException(e);
+	    } catch (InvocationTargetException e) {
+		throw new MessageTypeException(e.getCause());
+	    }
+	}
+    }
+
+    private TemplateRegistry registry;
+
+    private FieldEntryReader reader = new FieldEntryReader(true);
+
+    public CreatorTemplateBuilder(TemplateRegistry registry) {
+	super(registry);
+	this.registry = registry;
+    }
+
+    @Override
+    public boolean matchType(Type targetType) {
+	if (!(targetType instanceof Class)) {
+	    return false;
+	}
+	Class<?> c = (Class<?>) targetType;
+	return findCreatorConstructor(c) != null || findCreatorMethod(c) != null;
+    }
+
+    @Override
+    public FieldEntryReader getFieldEntryReader() {
+	return reader;
+    }
+
+    @Override
+    public Template buildTemplate(Class<?> type, FieldEntry[] entries) {
+	return buildCreatorTemplate(type, entries, null);
+    }
+
+    @Override
+    Template buildProjectionTemplate(Class<?> c, FieldEntry[] entries, boolean[] selected) {
+	// the creator takes every field, so the entries are not projected
+	// until the arguments are matched
+	return buildCreatorTemplate(c, entries, selected);
+    }
+
+    /**
+     * Builds the template. If selected is not null, the entries that are
+     * not selected are skipped and their arguments keep the default values.
+     */
+    private Template buildCreatorTemplate(Class<?> type, FieldEntry[] entries, boolean[] selected) {
+	if (entries == null) {
+	    throw new NullPointerException("entries is null: " + type);
+	}
+	Constructor<?> constructor = findCreatorConstructor(type);
+	Method factoryMethod = null;
+	Class<?>[] paramTypes;
+	if (constructor != null) {
+	    paramTypes = constructor.getParameterTypes();
+	} else {
+	    factoryMethod = findCreatorMethod(type);
+	    if (factoryMethod == null) {
+		throw new TemplateBuildException("No @Creator constructor or factory method in " + type.getName());
+	    }
+	    paramTypes = factoryMethod.getParameterTypes();
+	}
+
+	int[] argIndexes = new int[entries.length];
+	int n = 0;
+	for (int i = 0; i < entries.length; i++) {
+	    FieldEntry e = entries[i];
+	    if (!e.isAvailable()) {
+		argIndexes[i] = -1;
+		continue;
+	    }
+	    if (n >= paramTypes.length || paramTypes[n] != e.getType()) {
+		throw new TemplateBuildException("@Creator parameters do not match the fields of "
+			+ type.getName() + " at field " + e.getName());
+	    }
+	    argIndexes[i] = n++;
+	}
+	if (n != paramTypes.length) {
+	    throw new TemplateBuildException("@Creator has more parameters than the fields of " + type.getName());
+	}
+
+	ReflectionFieldEntry[] res = toReflectionFieldEntries(entries);
+	if (selected != null) {
+	    for (int i = 0; i < res.length; i++) {
+		if (!selected[i]) {
+		    res[i] = new NullFieldEntry(new FieldEntry());
+		}
+	    }
+	}
+
+	Template generated = null;
+	if (canGenerate(type, constructor, factoryMethod, paramTypes, res)) {
+	    try {
+		generated = generateTemplate(type, res, argIndexes, factoryMethod, paramTypes);
+	    } catch (TemplateBuildException e) {
+		// javassist cannot compile or define the class; use reflection
+	    }
+	}
+	if (generated == null) {
+	    if (constructor != null) {
+		constructor.setAccessible(true);
+	    } else {
+		factoryMethod.setAccessible(true);
+	    }
+	}
+	return new CreatorTemplate(type, res, argIndexes, constructor, factoryMethod, paramTypes, generated);
+    }
+
+    private static boolean canGenerate(Class<?> type, Constructor<?> constructor,
+	    Method factoryMethod, Class<?>[] paramTypes, ReflectionFieldEntry[] entries) {
+	if (!JavassistClassBuilder.canGenerate(type) || !JavassistClassBuilder.isVisible(type)
+		|| !JavassistClassBuilder.isVisible(constructor != null ? (Member) constructor : factoryMethod)) {
+	    return false;
+	}
+	if (constructor != null && Modifier.isAbstract(type.getModifiers())) {
+	    return false;
+	}
+	for (Class<?> t : paramTypes) {
+	    if (!JavassistClassBuilder.isVisible(t)
+		    || (t.isPrimitive() && JavassistClassBuilder.primitiveName(t) == null)) {
+		return false;
+	    }
+	}
+	for (ReflectionFieldEntry e : entries) {
+	    // the generated write reads the fields directly
+	    if (e.isAvailable() && !JavassistClassBuilder.isVisible(e.getField())) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    private static Template generateTemplate(Class<?> type, ReflectionFieldEntry[] entries,
+	    int[] argIndexes, Method factoryMethod, Class<?>[] paramTypes) {
+	String typeName = JavassistClassBuilder.typeName(type);
+	int minimumArrayLength = 0;
+	for (int i = 0; i < entries.length; i++) {
+	    if (entries[i].isRequired() || entries[i].isNotNullable()) {
+		minimumArrayLength = i + 1;
+	    }
+	}
+	Template[] templates = new Template[entries.length];
+	for (int i = 0; i < entries.length; i++) {
+	    if (entries[i].isAvailable() && !entries[i].getType().isPrimitive()) {
+		templates[i] = ((ObjectFieldEntry) entries[i]).getTemplate();
+	    }
+	}
+
+	JavassistClassBuilder cb = new JavassistClassBuilder(type, "_$$_CreatorTemplate");
+	cb.addInterface(Template.class);
+	cb.addField("private org.msgpack.template.Template[] templates;");
+	cb.addConstructor("public C(org.msgpack.template.Template[] templates) { this.templates = templates; }");
+
+	StringBuilder sb = new StringBuilder();
+	sb.append("public void write(org.msgpack.packer.Packer pk, Object o) throws java.io.IOException {\n");
+	sb.append("if (o == null) { throw new org.msgpack.MessageTypeException(\"Attempted to write null\"); }\n");
+	sb.append(typeName).append(" target = (").append(typeName).append(") o;\n");
+	sb.append("try {\n");
+	sb.append("pk.writeArrayBegin(").append(entries.length).append(");\n");
+	for (int i = 0; i < entries.length; i++) {
+	    ReflectionFieldEntry e = entries[i];
+	    if (!e.isAvailable()) {
+		sb.append("pk.writeNil();\n");
+		continue;
+	    }
+	    String field = "target." + e.getField().getName();
+	    String primitive = JavassistClassBuilder.primitiveName(e.getType());
+	    if (primitive != null) {
+		sb.append("pk.write").append(primitive).append("(").append(field).append(");\n");
+	    } else {
+		sb.append("Object v").append(i).append(" = ").append(field).append(";\n");
+		sb.append("if (v").append(i).append(" == null) {\n");
+		if (!e.isNotNullable() && !e.isOptional()) {
+		    sb.append("throw new org.msgpack.MessageTypeException();\n");
+		} else {
+		    sb.append("pk.writeNil();\n");
+		}
+		sb.append("} else {\n");
+		sb.append("templates[").append(i).append("].write(pk, v").append(i).append(");\n");
+		sb.append("}\n");
+	    }
+	}
+	sb.append("pk.writeArrayEnd();\n");
+	JavassistClassBuilder.appendCatch(sb);
+	sb.append("}\n");
+	cb.addMethod(sb.toString());
+
+	sb = new StringBuilder();
+	sb.append("public Object read(org.msgpack.unpacker.Unpacker u, Object to) throws java.io.IOException {\n");
+	sb.append("try {\n");
+	sb.append("int length = u.readArrayBegin();\n");
+	sb.append("if (length < ").append(minimumArrayLength).append(") { throw new org.msgpack.MessageTypeException(); }\n");
+	for (int k = 0; k < paramTypes.length; k++) {
+	    String t = JavassistClassBuilder.typeName(paramTypes[k]);
+	    sb.append(t).append(" a").append(k).append(" = ");
+	    if (paramTypes[k] == boolean.class) {
+		sb.append("false");
+	    } else if (paramTypes[k].isPrimitive()) {
+		sb.append("(").append(t).append(") 0");
+	    } else {
+		sb.append("null");
+	    }
+	    sb.append(";\n");
+	}
+	for (int i = 0; i < entries.length; i++) {
+	    ReflectionFieldEntry e = entries[i];
+	    if (i >= minimumArrayLength) {
+		sb.append("if (length > ").append(i).append(") {\n");
+	    }
+	    if (!e.isAvailable()) {
+		sb.append("u.skip();\n");
+	    } else {
+		int k = argIndexes[i];
+		String primitive = JavassistClassBuilder.primitiveName(paramTypes[k]);
+		sb.append("if (u.tryReadNil()) {\n");
+		if (e.isRequired() && i < minimumArrayLength) {
+		    // Required + nil => exception
+		    sb.append("throw new org.msgpack.MessageTypeException();\n");
+		}
+		// otherwise keep the default argument
+		sb.append("} else {\n");
+		if (primitive != null) {
+		    sb.append("a").append(k).append(" = u.read").append(primitive).append("();\n");
+		} else {
+		    sb.append("a").append(k).append(" = (").append(JavassistClassBuilder.typeName(paramTypes[k]))
+			    .append(") templates[").append(i).append("].read(u, null);\n");
+		}
+		sb.append("}\n");
+	    }
+	    if (i >= minimumArrayLength) {
+		sb.append("}\n");
+	    }
+	}
+	sb.append("for (int i = ").append(entries.length).append("; i < length; i++) { u.skip(); }\n");
+	sb.append("u.readArrayEnd();\n");
+	if (factoryMethod == null) {
+	    sb.append("return new ").append(typeName).append("(");
+	} else {
+	    sb.append("return ").append(typeName).append(".").append(factoryMethod.getName()).append("(");
+	}
+	for (int k = 0; k < paramTypes.length; k++) {
+	    if (k > 0) {
+		sb.append(", ");
+	    }
+	    sb.append("a").append(k);
+	}
+	sb.append(");\n");
+	JavassistClassBuilder.appendCatch(sb);
+	sb.append("}\n");
+	cb.addMethod(sb.toString());
+
+	return (Template) cb.newInstance(templates);
+    }
+
+    @Override
+    ReflectionFieldEntry[] toReflectionFieldEntries(FieldEntry[] entries) {
+	ReflectionFieldEntry[] res = new ReflectionFieldEntry[entries.length];
+	for (int i = 0; i < entries.length; i++) {
+	    FieldEntry e = entries[i];
+	    if (!e.isAvailable()) {
+		res[i] = new NullFieldEntry(e);
+		continue;
+	    }
+	    Field f = e.getField();
+	    if (!Modifier.isPublic(f.getModifiers())) {
+		f.setAccessible(true);
+	    }
+	    res[i] = new ObjectFieldEntry(e, registry.lookup(e.getGenericType()));
+	}
+	return res;
+    }
+
+    private static Constructor<?> findCreatorConstructor(Class<?> c) {
+	for (Constructor<?> constructor : c.getDeclaredConstructors()) {
+	    if (constructor.getAnnotation(Creator.class) != null) {
+		return constructor;
+	    }
+	}
+	return null;
+    }
+
+    private static Method findCreatorMethod(Class<?> c) {
+	for (Method m : c.getDeclaredMethods()) {
+	    if (m.getAnnotation(Creator.class) != null
+		    && Modifier.isStatic(m.getModifiers()) && m.getReturnType() == c) {
+		return m;
+	    }
+	}
+	return null;
+    }
+}
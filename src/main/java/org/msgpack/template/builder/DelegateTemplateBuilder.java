@@ -0,0 +1,259 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template.builder;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+
+import org.msgpack.MessageTypeException;
+import org.msgpack.TemplateRegistry;
+import org.msgpack.annotation.Delegate;
+import org.msgpack.annotation.MessagePackDelegate;
+import org.msgpack.packer.Packer;
+import org.msgpack.template.Template;
+import org.msgpack.unpacker.Unpacker;
+
+
+/**
+ * Builds templates for classes annotated with @Delegate or
+ * @MessagePackDelegate. The object is serialized as the value returned by
+ * the named method, and deserialized by passing that value to a
+ * constructor or a static factory method of the class.
+ *
+ * If the class, the method and the constructor or factory method are
+ * public, a template class that calls them directly is generated with
+ * javassist, and a primitive delegate value is read and written without
+ * boxing. Otherwise they are invoked by reflection.
+ */
+public class DelegateTemplateBuilder implements TemplateBuilder {
+
+    static class DelegateTemplate implements Template {
+	private Method delegateMethod;
+
+	private Constructor<?> constructor;
+
+	private Method factoryMethod;
+
+	private Template delegateTemplate;
+
+	DelegateTemplate(Method delegateMethod, Constructor<?> constructor,
+		Method factoryMethod, Template delegateTemplate) {
+	    this.delegateMethod = delegateMethod;
+	    this.constructor = constructor;
+	    this.factoryMethod = factoryMethod;
+	    this.delegateTemplate = delegateTemplate;
+	}
+
+	public void write(Packer packer, Object target) throws IOException {
+	    if (target == null) {
+		throw new MessageTypeException("Attempted to write null");
+	    }
+	    Object value;
+	    try {
+		value = delegateMethod.invoke(target);
+	    } catch (IllegalAccessException e) {
+		throw new MessageTypeException(e);
+	    } catch (InvocationTargetException e) {
+		throw new MessageTypeException(e.getCause());
+	    }
+	    delegateTemplate.write(packer, value);
+	}
+
+	public Object read(Unpacker unpacker, Object to) throws IOException, MessageTypeException {
+	    Object value = delegateTemplate.read(unpacker, null);
+	    try {
+		if (constructor != null) {
+		    return constructor.newInstance(value);
+		} else {
+		    return factoryMethod.invoke(null, value);
+		}
+	    } catch (InstantiationException e) {
+		throw new MessageTypeException(e);
+	    } catch (IllegalAccessException e) {
+		throw new MessageTypeException(e);
+	    } catch (InvocationTargetException e) {
+		throw new MessageTypeException(e.getCause());
+	    }
+	}
+    }
+
+    private TemplateRegistry registry;
+
+    public DelegateTemplateBuilder(TemplateRegistry registry) {
+	this.registry = registry;
+    }
+
+    public boolean matchType(Type targetType) {
+	if (!(targetType instanceof Class)) {
+	    return false;
+	}
+	return getDelegateMethodName((Class<?>) targetType) != null;
+    }
+
+    public Template buildTemplate(Type targetType) throws TemplateBuildException {
+	Class<?> c = (Class<?>) targetType;
+	String name = getDelegateMethodName(c);
+	if (name == null) {
+	    throw new TemplateBuildException("Not a delegate class: " + c.getName());
+	}
+
+	Method delegateMethod;
+	try {
+	    delegateMethod = c.getMethod(name);
+	} catch (NoSuchMethodException e) {
+	    throw new TemplateBuildException("No such delegate method: " + name + " in " + c.getName(), e);
+	}
+	Class<?> delegateType = delegateMethod.getReturnType();
+	if (delegateType == void.class) {
+	    throw new TemplateBuildException("Delegate method returns void: " + name + " in " + c.getName());
+	}
+
+	Constructor<?> constructor = null;
+	Method factoryMethod = null;
+	try {
+	    constructor = c.getConstructor(delegateType);
+	} catch (NoSuchMethodException e) {
+	    factoryMethod = findFactoryMethod(c, delegateType);
+	}
+
+	Template delegateTemplate = registry.lookup(delegateMethod.getGenericReturnType());
+	if (canGenerate(c, delegateMethod, constructor, factoryMethod)) {
+	    try {
+		return generateTemplate(c, delegateMethod, factoryMethod, delegateTemplate);
+	    } catch (TemplateBuildException e) {
+		// javassist cannot compile or define the class; use reflection
+	    }
+	}
+
+	// skips the access check on every call
+	delegateMethod.setAccessible(true);
+	if (constructor != null) {
+	    constructor.setAccessible(true);
+	} else {
+	    factoryMethod.setAccessible(true);
+	}
+	return new DelegateTemplate(delegateMethod, constructor, factoryMethod, delegateTemplate);
+    }
+
+    private static boolean canGenerate(Class<?> c, Method delegateMethod,
+	    Constructor<?> constructor, Method factoryMethod) {
+	Class<?> delegateType = delegateMethod.getReturnType();
+	return JavassistClassBuilder.canGenerate(c)
+		&& JavassistClassBuilder.isVisible(c)
+		&& JavassistClassBuilder.isVisible(delegateMethod)
+		&& JavassistClassBuilder.isVisible(constructor != null ? (Member) constructor : factoryMethod)
+		&& JavassistClassBuilder.isVisible(delegateType)
+		&& (!delegateType.isPrimitive() || JavassistClassBuilder.primitiveName(delegateType) != null);
+    }
+
+    private static Template generateTemplate(Class<?> c, Method delegateMethod,
+	    Method factoryMethod, Template delegateTemplate) {
+	String typeName = JavassistClassBuilder.typeName(c);
+	Class<?> delegateType = delegateMethod.getReturnType();
+	String primitive = JavassistClassBuilder.primitiveName(delegateType);
+
+	JavassistClassBuilder cb = new JavassistClassBuilder(c, "_$$_DelegateTemplate");
+	cb.addInterface(Template.class);
+	cb.addField("private org.msgpack.template.Template delegateTemplate;");
+	cb.addConstructor("public C(org.msgpack.template.Template[] templates) { delegateTemplate = templates[0]; }");
+
+	String value = "((" + typeName + ") o)." + delegateMethod.getName() + "()";
+	StringBuilder sb = new StringBuilder();
+	sb.append("public void write(org.msgpack.packer.Packer pk, Object o) throws java.io.IOException {\n");
+	sb.append("if (o == null) { throw new org.msgpack.MessageTypeException(\"Attempted to write null\"); }\n");
+	sb.append("try {\n");
+	if (primitive != null) {
+	    sb.append("pk.write").append(primitive).append("(").append(value).append(");\n");
+	} else {
+	    sb.append("Object v = ").append(value).append(";\n");
+	    sb.append("delegateTemplate.write(pk, v);\n");
+	}
+	JavassistClassBuilder.appendCatch(sb);
+	sb.append("}\n");
+	cb.addMethod(sb.toString());
+
+	String arg;
+	if (primitive != null) {
+	    arg = "u.read" + primitive + "()";
+	} else {
+	    arg = "(" + JavassistClassBuilder.typeName(delegateType) + ") delegateTemplate.read(u, null)";
+	}
+	sb = new StringBuilder();
+	sb.append("public Object read(org.msgpack.unpacker.Unpacker u, Object to) throws java.io.IOException {\n");
+	sb.append("try {\n");
+	if (factoryMethod == null) {
+	    sb.append("return new ").append(typeName).append("(").append(arg).append(");\n");
+	} else {
+	    sb.append("return ").append(typeName).append(".").append(factoryMethod.getName())
+		    .append("(").append(arg).append(");\n");
+	}
+	JavassistClassBuilder.appendCatch(sb);
+	sb.append("}\n");
+	cb.addMethod(sb.toString());
+
+	return (Template) cb.newInstance(new Template[] { delegateTemplate });
+    }
+
+    public void writeTemplate(Type type, String directoryName) {
+	throw new UnsupportedOperationException(type.toString());
+    }
+
+    public Template loadTemplate(Type type) {
+	return null;
+    }
+
+    private static Method findFactoryMethod(Class<?> c, Class<?> delegateType) {
+	Method found = null;
+	for (Method m : c.getMethods()) {
+	    if (!Modifier.isStatic(m.getModifiers()) || m.getReturnType() != c) {
+		continue;
+	    }
+	    Class<?>[] params = m.getParameterTypes();
+	    if (params.length != 1 || params[0] != delegateType) {
+		continue;
+	    }
+	    if (found != null) {
+		throw new TemplateBuildException("Ambiguous factory methods: " + found.getName()
+			+ " and " + m.getName() + " in " + c.getName());
+	    }
+	    found = m;
+	}
+	if (found == null) {
+	    throw new TemplateBuildException("No constructor or static factory method taking "
+		    + delegateType.getName() + " in " + c.getName());
+	}
+	return found;
+    }
+
+    private static String getDelegateMethodName(Class<?> c) {
+	Delegate a = c.getAnnotation(Delegate.class);
+	if (a != null) {
+	    return a.value();
+	}
+	MessagePackDelegate b = c.getAnnotation(MessagePackDelegate.class);
+	if (b != null) {
+	    return b.value();
+	}
+	return null;
+    }
+}
@@ -0,0 +1,163 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template.builder;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.msgpack.MessageTypeException;
+import org.msgpack.packer.Packer;
+import org.msgpack.template.Template;
+import org.msgpack.unpacker.Unpacker;
+import org.msgpack.template.builder.ReflectionTemplateBuilder.ReflectionFieldEntry;
+
+
+/**
+ * Writes only the fields that differ from a base instance. The wire form
+ * is [bitmap, value...], where bit i of the raw bitmap (bit i % 8 of byte
+ * i / 8) is set when field i follows. Reading applies the delta onto the
+ * given instance and leaves the other fields unchanged.
+ */
+public class DeltaTemplate implements Template {
+    private Class<?> targetClass;
+
+    private ReflectionFieldEntry[] entries;
+
+    DeltaTemplate(Class<?> targetClass, ReflectionFieldEntry[] entries) {
+	this.targetClass = targetClass;
+	this.entries = entries;
+    }
+
+    /**
+     * Writes every available field; the same as a delta against nothing.
+     */
+    public void write(Packer packer, Object target) throws IOException {
+	writeDelta(packer, null, target);
+    }
+
+    /**
+     * Writes the fields of target that differ from base. If base is null
+     * every available field is written.
+     */
+    public void writeDelta(Packer packer, Object base, Object target) throws IOException {
+	if (target == null) {
+	    throw new MessageTypeException("Attempted to write null");
+	}
+	try {
+	    byte[] bitmap = new byte[(entries.length + 7) / 8];
+	    Object[] values = new Object[entries.length];
+	    int count = 0;
+	    for (int i = 0; i < entries.length; i++) {
+		ReflectionFieldEntry e = entries[i];
+		if (!e.isAvailable()) {
+		    continue;
+		}
+		Object value = e.get(target);
+		if (base != null && equals(e.get(base), value)) {
+		    continue;
+		}
+		if (value == null && !e.isNotNullable() && !e.isOptional()) {
+		    throw new MessageTypeException();
+		}
+		bitmap[i >> 3] |= 1 << (i & 7);
+		values[i] = value;
+		count++;
+	    }
+
+	    packer.writeArrayBegin(count + 1);
+	    packer.writeByteArray(bitmap);
+	    for (int i = 0; i < entries.length; i++) {
+		if ((bitmap[i >> 3] & (1 << (i & 7))) == 0) {
+		    continue;
+		}
+		if (values[i] == null) {
+		    packer.writeNil();
+		} else {
+		    entries[i].write(packer, values[i]);
+		}
+	    }
+	    packer.writeArrayEnd();
+	} catch (MessageTypeException e) {
+	    throw e;
+	} catch (IOException e) {
+	    throw e;
+	} catch (Exception e) {
+	    throw new MessageTypeException(e);
+	}
+    }
+
+    public Object read(Unpacker unpacker, Object to) throws IOException, MessageTypeException {
+	try {
+	    if (to == null) {
+		to = targetClass.newInstance();
+	    }
+
+	    int length = unpacker.readArrayBegin();
+	    if (length < 1) {
+		throw new MessageTypeException();
+	    }
+	    byte[] bitmap = unpacker.readByteArray();
+	    int count = 1;
+	    for (int i = 0; i < bitmap.length * 8; i++) {
+		if ((bitmap[i >> 3] & (1 << (i & 7))) == 0) {
+		    continue;
+		}
+		if (i >= entries.length || !entries[i].isAvailable()) {
+		    throw new MessageTypeException("Unknown field index in delta: " + i);
+		}
+		if (count++ >= length) {
+		    throw new MessageTypeException("Delta is shorter than its bitmap");
+		}
+		ReflectionFieldEntry e = entries[i];
+		if (unpacker.tryReadNil()) {
+		    if (e.isRequired()) {
+			throw new MessageTypeException();
+		    }
+		    e.setNull(to);
+		} else {
+		    e.read(unpacker, to);
+		}
+	    }
+	    if (count != length) {
+		throw new MessageTypeException("Delta is longer than its bitmap");
+	    }
+	    unpacker.readArrayEnd();
+	    return to;
+	} catch (MessageTypeException e) {
+	    throw e;
+	} catch (IOException e) {
+	    throw e;
+	} catch (Exception e) {
+	    throw new MessageTypeException(e);
+	}
+    }
+
+    private static boolean equals(Object a, Object b) {
+	if (a == b) {
+	    return true;
+	}
+	if (a == null || b == null) {
+	    return false;
+	}
+	if (a.getClass().isArray()) {
+	    // also compares arrays of primitives by content
+	    return Arrays.deepEquals(new Object[] { a }, new Object[] { b });
+	}
+	return a.equals(b);
+    }
+}
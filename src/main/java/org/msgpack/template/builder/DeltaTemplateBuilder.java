@@ -0,0 +1,37 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template.builder;
+
+import org.msgpack.TemplateRegistry;
+import org.msgpack.template.Template;
+
+
+public class DeltaTemplateBuilder extends ReflectionTemplateBuilder {
+
+    public DeltaTemplateBuilder(TemplateRegistry registry) {
+	super(registry);
+    }
+
+    @Override
+    public Template buildTemplate(Class<?> type, FieldEntry[] entries) {
+	if (entries == null) {
+	    throw new NullPointerException("entries is null: " + type);
+	}
+	return new DeltaTemplate(type, toReflectionFieldEntries(entries));
+    }
+}
@@ -20,6 +20,7 @@ package org.msgpack.template.builder;
 import java.lang.reflect.Field;
 import java.lang.reflect.Type;
 
+import org.msgpack.MessageTypeException;
 import org.msgpack.template.FieldOption;
 
 
@@ -55,7 +56,7 @@ public class FieldEntry {
     }
 
     public String getJavaTypeName() {
-	Class<?> type = field.getType();
+	Class<?> type = getType();
 	if (type.isArray()) {
 	    return arrayTypeToString(type);
 	} else {
@@ -67,6 +68,22 @@ public class FieldEntry {
 	return field.getGenericType();
     }
 
+    public Object get(Object target) {
+	try {
+	    return field.get(target);
+	} catch (IllegalAccessException e) {
+	    throw new MessageTypeException(e);
+	}
+    }
+
+    public void set(Object target, Object value) {
+	try {
+	    field.set(target, value);
+	} catch (IllegalAccessException e) {
+	    throw new MessageTypeException(e);
+	}
+    }
+
     public FieldOption getOption() {
 	return option;
     }
@@ -36,6 +36,20 @@ import org.msgpack.template.FieldOption;
 
 public class FieldEntryReader {
 
+    private boolean readFinalFields;
+
+    public FieldEntryReader() {
+	this(false);
+    }
+
+    /**
+     * @param readFinalFields if true, final fields are not ignored. This is
+     *        for templates that set fields through a constructor.
+     */
+    public FieldEntryReader(boolean readFinalFields) {
+	this.readFinalFields = readFinalFields;
+    }
+
     public FieldEntry[] convertFieldEntries(Class<?> targetClass, FieldList flist) throws NoSuchFieldException {
 	List<FieldList.Entry> src = flist.getList();
 	FieldEntry[] result = new FieldEntry[src.size()];
@@ -51,8 +65,23 @@ public class FieldEntryReader {
     }
 
     public FieldEntry[] readFieldEntries(Class<?> targetClass, FieldOption implicitOption) {
-	Field[] allFields = readAllFields(targetClass);
+	List<FieldEntry> entries = new ArrayList<FieldEntry>();
+	for(Field f : readAllFields(targetClass)) {
+	    FieldOption opt = readFieldOption(f, implicitOption);
+	    if(opt == FieldOption.IGNORE) {
+		// skip
+		continue;
+	    }
+	    entries.add(new FieldEntry(f, opt));
+	}
+	return indexFieldEntries(entries);
+    }
 
+    /**
+     * Places the entries at their indexes and fills the gaps with
+     * unavailable entries.
+     */
+    protected FieldEntry[] indexFieldEntries(List<FieldEntry> entries) {
 	/* index:
 	 *   @Index(0) int field_a;   // 0
 	 *             int field_b;   // 1
@@ -63,14 +92,9 @@ public class FieldEntryReader {
 	 */
 	List<FieldEntry> indexed = new ArrayList<FieldEntry>();
 	int maxIndex = -1;
-	for(Field f : allFields) {
-	    FieldOption opt = readFieldOption(f, implicitOption);
-	    if(opt == FieldOption.IGNORE) {
-		// skip
-		continue;
-	    }
-
-	    int index = readFieldIndex(f, maxIndex);
+	for(FieldEntry e : entries) {
+	    Index a = readIndex(e);
+	    int index = a == null ? maxIndex + 1 : a.value();
 	    if(indexed.size() > index && indexed.get(index) != null) {
 		throw new TemplateBuildException("duplicated index: "+index);
 	    }
@@ -81,7 +105,7 @@ public class FieldEntryReader {
 	    while(indexed.size() <= index) {
 		indexed.add(null);
 	    }
-	    indexed.set(index, new FieldEntry(f, opt));
+	    indexed.set(index, e);
 
 	    if(maxIndex < index) {
 		maxIndex = index;
@@ -100,6 +124,13 @@ public class FieldEntryReader {
 	return result;
     }
 
+    /**
+     * Returns the @Index annotation of the entry, or null.
+     */
+    protected Index readIndex(FieldEntry e) {
+	return e.getField().getAnnotation(Index.class);
+    }
+
     public FieldOption readImplicitFieldOption(Class<?> targetClass) {
 	MessagePackMessage a = targetClass.getAnnotation(MessagePackMessage.class);
 	if(a == null) {
@@ -127,9 +158,9 @@ public class FieldEntryReader {
 	return result;
     }
 
-    private static FieldOption readFieldOption(Field field, FieldOption implicitOption) {
+    private FieldOption readFieldOption(Field field, FieldOption implicitOption) {
 	int mod = field.getModifiers();
-	if(Modifier.isStatic(mod) || Modifier.isFinal(mod)) {
+	if(Modifier.isStatic(mod) || (Modifier.isFinal(mod) && !readFinalFields)) {
 	    return FieldOption.IGNORE;
 	}
 
@@ -164,15 +195,6 @@ public class FieldEntryReader {
 	}
     }
 
-    private static int readFieldIndex(Field field, int maxIndex) {
-	Index a = field.getAnnotation(Index.class);
-	if(a == null) {
-	    return maxIndex + 1;
-	} else {
-	    return a.value();
-	}
-    }
-
     private static boolean isAnnotated(AccessibleObject ao, Class<? extends Annotation> with) {
 	return ao.getAnnotation(with) != null;
     }
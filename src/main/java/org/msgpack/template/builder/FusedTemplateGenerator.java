@@ -0,0 +1,270 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template.builder;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.msgpack.template.Template;
+import org.msgpack.template.builder.ReflectionTemplateBuilder.NestedFieldEntry;
+import org.msgpack.template.builder.ReflectionTemplateBuilder.ObjectFieldEntry;
+import org.msgpack.template.builder.ReflectionTemplateBuilder.ReflectionFieldEntry;
+import org.msgpack.template.builder.ReflectionTemplateBuilder.ReflectionTemplate;
+
+
+/**
+ * Generates with javassist one template for a class built by
+ * ReflectionTemplateBuilder that writes and reads the fields of its nested
+ * final classes inline, so a nested object costs no template call. Nested
+ * classes are inlined recursively; a nested class that generated code
+ * cannot access, or that is already being inlined further up, is written
+ * and read through its template instead.
+ */
+final class FusedTemplateGenerator {
+    // templates of the fields that are not inlined, in the order of use
+    private List<Template> templates = new ArrayList<Template>();
+
+    // classes being inlined, from the root class down
+    private List<Class<?>> path = new ArrayList<Class<?>>();
+
+    private int locals = 0;
+
+    private FusedTemplateGenerator() {
+    }
+
+    /**
+     * Returns the generated template, or null if no nested class can be
+     * inlined or generated code cannot access the class.
+     */
+    static Template generate(Class<?> type, ReflectionTemplate tmpl) {
+	if (!JavassistClassBuilder.canGenerate(type) || !canInline(type, tmpl.entries)) {
+	    return null;
+	}
+	FusedTemplateGenerator g = new FusedTemplateGenerator();
+	g.path.add(type);
+	boolean nested = false;
+	for (ReflectionFieldEntry e : tmpl.entries) {
+	    if (g.isInlined(e)) {
+		nested = true;
+	    }
+	}
+	if (!nested) {
+	    return null;
+	}
+	return g.generateTemplate(type, tmpl);
+    }
+
+    /**
+     * Returns true if generated code can create instances of the class and
+     * access its fields.
+     */
+    private static boolean canInline(Class<?> type, ReflectionFieldEntry[] entries) {
+	if (!JavassistClassBuilder.isVisible(type) || Modifier.isAbstract(type.getModifiers())) {
+	    return false;
+	}
+	try {
+	    if (!JavassistClassBuilder.isVisible(type.getConstructor())) {
+		return false;
+	    }
+	} catch (NoSuchMethodException e) {
+	    return false;
+	}
+	for (ReflectionFieldEntry e : entries) {
+	    if (!e.isAvailable()) {
+		continue;
+	    }
+	    Field f = e.getField();
+	    Class<?> t = e.getType();
+	    if (f == null || !JavassistClassBuilder.isVisible(f) || Modifier.isFinal(f.getModifiers())
+		    || !JavassistClassBuilder.isVisible(t)) {
+		return false;
+	    }
+	    if (t.isPrimitive() ? JavassistClassBuilder.primitiveName(t) == null
+		    : !(e instanceof ObjectFieldEntry || e instanceof NestedFieldEntry)) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    private boolean isInlined(ReflectionFieldEntry e) {
+	if (!(e instanceof NestedFieldEntry) || path.contains(e.getType())) {
+	    return false;
+	}
+	return canInline(e.getType(), ((NestedFieldEntry) e).getTemplate().entries);
+    }
+
+    private Template getTemplate(ReflectionFieldEntry e) {
+	if (e instanceof NestedFieldEntry) {
+	    return ((NestedFieldEntry) e).getTemplate();
+	}
+	return ((ObjectFieldEntry) e).getTemplate();
+    }
+
+    private int addTemplate(ReflectionFieldEntry e) {
+	templates.add(getTemplate(e));
+	return templates.size() - 1;
+    }
+
+    private String newLocal() {
+	return "l" + (locals++);
+    }
+
+    private Template generateTemplate(Class<?> type, ReflectionTemplate tmpl) {
+	String typeName = JavassistClassBuilder.typeName(type);
+	JavassistClassBuilder cb = new JavassistClassBuilder(type, "_$$_FusedTemplate");
+	cb.addInterface(Template.class);
+	cb.addField("private org.msgpack.template.Template[] templates;");
+	cb.addConstructor("public C(org.msgpack.template.Template[] templates) { this.templates = templates; }");
+
+	StringBuilder sb = new StringBuilder();
+	sb.append("public void write(org.msgpack.packer.Packer pk, Object o) throws java.io.IOException {\n");
+	sb.append("if (o == null) { throw new org.msgpack.MessageTypeException(\"Attempted to write null\"); }\n");
+	sb.append(typeName).append(" target = (").append(typeName).append(") o;\n");
+	sb.append("try {\n");
+	appendWrite(sb, "target", tmpl.entries);
+	JavassistClassBuilder.appendCatch(sb);
+	sb.append("}\n");
+	cb.addMethod(sb.toString());
+
+	sb = new StringBuilder();
+	sb.append("public Object read(org.msgpack.unpacker.Unpacker u, Object to) throws java.io.IOException {\n");
+	sb.append(typeName).append(" target;\n");
+	sb.append("if (to == null) { target = new ").append(typeName).append("(); } else { target = (")
+		.append(typeName).append(") to; }\n");
+	sb.append("try {\n");
+	appendRead(sb, "target", tmpl.entries, tmpl.minimumArrayLength);
+	sb.append("return target;\n");
+	JavassistClassBuilder.appendCatch(sb);
+	sb.append("}\n");
+	cb.addMethod(sb.toString());
+
+	return (Template) cb.newInstance(templates.toArray(new Template[templates.size()]));
+    }
+
+    /**
+     * Writes the object in the local target as an array, as
+     * ReflectionTemplate.writeObject does.
+     */
+    private void appendWrite(StringBuilder sb, String target, ReflectionFieldEntry[] entries) {
+	sb.append("pk.writeArrayBegin(").append(entries.length).append(");\n");
+	for (ReflectionFieldEntry e : entries) {
+	    if (!e.isAvailable()) {
+		sb.append("pk.writeNil();\n");
+		continue;
+	    }
+	    String field = target + "." + e.getField().getName();
+	    String primitive = JavassistClassBuilder.primitiveName(e.getType());
+	    if (primitive != null) {
+		sb.append("pk.write").append(primitive).append("(").append(field).append(");\n");
+		continue;
+	    }
+	    boolean inlined = isInlined(e);
+	    String v = newLocal();
+	    if (inlined) {
+		sb.append(JavassistClassBuilder.typeName(e.getType()));
+	    } else {
+		sb.append("Object");
+	    }
+	    sb.append(" ").append(v).append(" = ").append(field).append(";\n");
+	    sb.append("if (").append(v).append(" == null) {\n");
+	    if (!e.isNotNullable() && !e.isOptional()) {
+		sb.append("throw new org.msgpack.MessageTypeException();\n");
+	    } else {
+		sb.append("pk.writeNil();\n");
+	    }
+	    sb.append("} else {\n");
+	    if (inlined) {
+		path.add(e.getType());
+		appendWrite(sb, v, ((NestedFieldEntry) e).getTemplate().entries);
+		path.remove(path.size() - 1);
+	    } else {
+		sb.append("templates[").append(addTemplate(e)).append("].write(pk, ").append(v).append(");\n");
+	    }
+	    sb.append("}\n");
+	}
+	sb.append("pk.writeArrayEnd();\n");
+    }
+
+    /**
+     * Reads an array into the object in the local target, as
+     * ReflectionTemplate.readObject does.
+     */
+    private void appendRead(StringBuilder sb, String target, ReflectionFieldEntry[] entries,
+	    int minimumArrayLength) {
+	String length = newLocal();
+	sb.append("int ").append(length).append(" = u.readArrayBegin();\n");
+	sb.append("if (").append(length).append(" < ").append(minimumArrayLength)
+		.append(") { throw new org.msgpack.MessageTypeException(); }\n");
+	for (int i = 0; i < entries.length; i++) {
+	    ReflectionFieldEntry e = entries[i];
+	    if (i >= minimumArrayLength) {
+		sb.append("if (").append(length).append(" > ").append(i).append(") {\n");
+	    }
+	    if (!e.isAvailable()) {
+		sb.append("u.skip();\n");
+	    } else {
+		String field = target + "." + e.getField().getName();
+		String fieldType = JavassistClassBuilder.typeName(e.getType());
+		String primitive = JavassistClassBuilder.primitiveName(e.getType());
+		sb.append("if (u.tryReadNil()) {\n");
+		if (i < minimumArrayLength && !e.isOptional()) {
+		    if (e.isRequired() || primitive != null) {
+			// Required + nil => exception; a primitive cannot be null
+			sb.append("throw new org.msgpack.MessageTypeException();\n");
+		    } else {
+			sb.append(field).append(" = null;\n");
+		    }
+		}
+		// otherwise keep the default value
+		sb.append("} else {\n");
+		if (primitive != null) {
+		    sb.append(field).append(" = u.read").append(primitive).append("();\n");
+		} else if (isInlined(e)) {
+		    ReflectionTemplate nested = ((NestedFieldEntry) e).getTemplate();
+		    String v = newLocal();
+		    sb.append(fieldType).append(" ").append(v).append(" = ").append(field).append(";\n");
+		    sb.append("if (").append(v).append(" == null) { ").append(v).append(" = new ")
+			    .append(fieldType).append("(); }\n");
+		    path.add(e.getType());
+		    appendRead(sb, v, nested.entries, nested.minimumArrayLength);
+		    path.remove(path.size() - 1);
+		    sb.append(field).append(" = ").append(v).append(";\n");
+		} else {
+		    String f = newLocal();
+		    String v = newLocal();
+		    sb.append("Object ").append(f).append(" = ").append(field).append(";\n");
+		    sb.append("Object ").append(v).append(" = templates[").append(addTemplate(e))
+			    .append("].read(u, ").append(f).append(");\n");
+		    sb.append("if (").append(v).append(" != ").append(f).append(") { ").append(field)
+			    .append(" = (").append(fieldType).append(") ").append(v).append("; }\n");
+		}
+		sb.append("}\n");
+	    }
+	    if (i >= minimumArrayLength) {
+		sb.append("}\n");
+	    }
+	}
+	String i = newLocal();
+	sb.append("for (int ").append(i).append(" = ").append(entries.length).append("; ")
+		.append(i).append(" < ").append(length).append("; ").append(i).append("++) { u.skip(); }\n");
+	sb.append("u.readArrayEnd();\n");
+    }
+}
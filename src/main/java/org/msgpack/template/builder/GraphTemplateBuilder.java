@@ -0,0 +1,106 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template.builder;
+
+import java.io.IOException;
+
+import org.msgpack.MessageTypeException;
+import org.msgpack.TemplateRegistry;
+import org.msgpack.packer.Packer;
+import org.msgpack.template.Template;
+import org.msgpack.unpacker.Unpacker;
+
+
+/**
+ * Builds templates that preserve object identity. The first time an object
+ * is written it gets the next id and is written as [nil, field...]; later
+ * occurrences are written as [id]. Ids are kept by the Packer and the
+ * Unpacker, so repeated objects are shared across every graph template
+ * used with the same packer, and cycles are allowed.
+ *
+ * The template is registered before its field templates are built, so
+ * fields may refer back to the class itself.
+ */
+public class GraphTemplateBuilder extends ReflectionTemplateBuilder {
+
+    static class GraphTemplate extends ReflectionTemplate {
+	GraphTemplate(Class<?> targetClass) {
+	    super(targetClass, new ReflectionFieldEntry[0]);
+	}
+
+	@Override
+	public void write(Packer packer, Object target) throws IOException {
+	    if (target == null) {
+		throw new MessageTypeException("Attempted to write null");
+	    }
+	    int id = packer.putObjectReference(target);
+	    if (id >= 0) {
+		packer.writeArrayBegin(1);
+		packer.writeInt(id);
+		packer.writeArrayEnd();
+		return;
+	    }
+	    packer.writeArrayBegin(entries.length + 1);
+	    packer.writeNil();
+	    writeFields(packer, target);
+	    packer.writeArrayEnd();
+	}
+
+	@Override
+	public Object read(Unpacker unpacker, Object to) throws IOException, MessageTypeException {
+	    int length = unpacker.readArrayBegin();
+	    if (length < 1) {
+		throw new MessageTypeException();
+	    }
+	    if (!unpacker.tryReadNil()) {
+		Object o = unpacker.getObjectReference(unpacker.readInt());
+		if (length != 1) {
+		    throw new MessageTypeException();
+		}
+		unpacker.readArrayEnd();
+		return o;
+	    }
+	    if (to == null) {
+		to = newInstance();
+	    }
+	    // registered first so that cycles resolve to this instance
+	    unpacker.putObjectReference(to);
+	    readFields(unpacker, to, length - 1);
+	    unpacker.readArrayEnd();
+	    return to;
+	}
+    }
+
+    private TemplateRegistry registry;
+
+    public GraphTemplateBuilder(TemplateRegistry registry) {
+	super(registry);
+	this.registry = registry;
+    }
+
+    @Override
+    public Template buildTemplate(Class<?> type, FieldEntry[] entries) {
+	if (entries == null) {
+	    throw new NullPointerException("entries is null: " + type);
+	}
+	GraphTemplate tmpl = new GraphTemplate(type);
+	registry.register(type, tmpl);
+	tmpl.setEntries(toReflectionFieldEntries(entries));
+	return tmpl;
+    }
+}
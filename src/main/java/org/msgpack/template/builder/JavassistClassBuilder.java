@@ -0,0 +1,233 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template.builder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Modifier;
+
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import javassist.NotFoundException;
+
+import org.msgpack.template.Template;
+
+
+/**
+ * Compiles a class from Java source snippets with javassist, once per
+ * template. The class is defined in its own class loader, a child of the
+ * loader of the target class, so it is in another runtime package than
+ * the target: its code may use only public classes and members. Builders
+ * check that with isVisible and keep reflection for everything else.
+ */
+class JavassistClassBuilder {
+
+    private static class GeneratedClassLoader extends ClassLoader {
+	GeneratedClassLoader(ClassLoader parent) {
+	    super(parent);
+	}
+
+	Class<?> define(String name, byte[] b) {
+	    return defineClass(name, b, 0, b.length);
+	}
+    }
+
+    private ClassLoader loader;
+
+    private CtClass ctClass;
+
+    /**
+     * Starts a class named after the target class and the suffix.
+     */
+    JavassistClassBuilder(Class<?> targetClass, String suffix) {
+	loader = getLoader(targetClass);
+	ClassPool pool = new ClassPool();
+	pool.appendClassPath(new LoaderClassPath(loader));
+	ctClass = pool.makeClass(targetClass.getName() + suffix);
+    }
+
+    /**
+     * Returns true if code generated for the target class can see the
+     * classes of this library through the loader of the target class.
+     */
+    static boolean canGenerate(Class<?> targetClass) {
+	try {
+	    return Class.forName(Template.class.getName(), false, getLoader(targetClass)) == Template.class;
+	} catch (ClassNotFoundException e) {
+	    return false;
+	}
+    }
+
+    private static ClassLoader getLoader(Class<?> targetClass) {
+	ClassLoader cl = targetClass.getClassLoader();
+	if (cl == null) {
+	    cl = Template.class.getClassLoader();
+	}
+	return cl;
+    }
+
+    /**
+     * Returns true if the class, its enclosing classes and, for arrays, its
+     * component type are public.
+     */
+    static boolean isVisible(Class<?> c) {
+	while (c.isArray()) {
+	    c = c.getComponentType();
+	}
+	if (c.isPrimitive()) {
+	    return true;
+	}
+	for (; c != null; c = c.getEnclosingClass()) {
+	    if (!Modifier.isPublic(c.getModifiers())) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Returns true if the member is public and declared by a visible class.
+     */
+    static boolean isVisible(Member m) {
+	return Modifier.isPublic(m.getModifiers()) && isVisible(m.getDeclaringClass());
+    }
+
+    /**
+     * Returns the name of the type in Java source.
+     */
+    static String typeName(Class<?> c) {
+	return c.getCanonicalName();
+    }
+
+    /**
+     * Returns the suffix of the Packer and Unpacker methods for the
+     * primitive type, such as "Int" for writeInt and readInt, or null if
+     * the type has no such methods.
+     */
+    static String primitiveName(Class<?> c) {
+	if (c == boolean.class) {
+	    return "Boolean";
+	} else if (c == byte.class) {
+	    return "Byte";
+	} else if (c == short.class) {
+	    return "Short";
+	} else if (c == int.class) {
+	    return "Int";
+	} else if (c == long.class) {
+	    return "Long";
+	} else if (c == float.class) {
+	    return "Float";
+	} else if (c == double.class) {
+	    return "Double";
+	} else {
+	    return null;
+	}
+    }
+
+    /**
+     * Closes a try block opened by the generated code. Runtime exceptions
+     * thrown by user code are wrapped in MessageTypeException, as the
+     * reflective templates do.
+     */
+    static void appendCatch(StringBuilder sb) {
+	sb.append("} catch (org.msgpack.MessageTypeException e) {\n");
+	sb.append("throw e;\n");
+	sb.append("} catch (java.io.IOException e) {\n");
+	sb.append("throw e;\n");
+	sb.append("} catch (RuntimeException e) {\n");
+	sb.append("throw new org.msgpack.MessageTypeException(e);\n");
+	sb.append("}\n");
+    }
+
+    void addInterface(Class<?> c) {
+	try {
+	    ctClass.addInterface(ctClass.getClassPool().get(c.getName()));
+	} catch (NotFoundException e) {
+	    throw new TemplateBuildException(e);
+	}
+    }
+
+    void addField(String src) {
+	try {
+	    ctClass.addField(CtField.make(src, ctClass));
+	} catch (CannotCompileException e) {
+	    throw new TemplateBuildException("Cannot compile " + src, e);
+	} catch (RuntimeException e) {
+	    // javassist fails this way on class files it cannot parse
+	    throw new TemplateBuildException("Cannot compile " + src, e);
+	}
+    }
+
+    void addConstructor(String src) {
+	try {
+	    ctClass.addConstructor(CtNewConstructor.make(src, ctClass));
+	} catch (CannotCompileException e) {
+	    throw new TemplateBuildException("Cannot compile " + src, e);
+	} catch (RuntimeException e) {
+	    // javassist fails this way on class files it cannot parse
+	    throw new TemplateBuildException("Cannot compile " + src, e);
+	}
+    }
+
+    void addMethod(String src) {
+	try {
+	    ctClass.addMethod(CtNewMethod.make(src, ctClass));
+	} catch (CannotCompileException e) {
+	    throw new TemplateBuildException("Cannot compile " + src, e);
+	} catch (RuntimeException e) {
+	    // javassist fails this way on class files it cannot parse
+	    throw new TemplateBuildException("Cannot compile " + src, e);
+	}
+    }
+
+    /**
+     * Defines the class and creates an instance with its constructor
+     * taking an array of templates.
+     */
+    Object newInstance(Template[] templates) {
+	try {
+	    return toClass().getConstructor(Template[].class).newInstance((Object) templates);
+	} catch (LinkageError e) {
+	    throw new TemplateBuildException(e);
+	} catch (InvocationTargetException e) {
+	    throw new TemplateBuildException(e.getCause());
+	} catch (Exception e) {
+	    throw new TemplateBuildException(e);
+	}
+    }
+
+    /**
+     * Defines the class.
+     */
+    Class<?> toClass() {
+	byte[] b;
+	try {
+	    b = ctClass.toBytecode();
+	} catch (Exception e) {
+	    throw new TemplateBuildException(e);
+	} finally {
+	    ctClass.detach();
+	}
+	return new GeneratedClassLoader(loader).define(ctClass.getName(), b);
+    }
+}
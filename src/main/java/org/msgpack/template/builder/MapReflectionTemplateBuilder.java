@@ -0,0 +1,225 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template.builder;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.msgpack.MessageTypeException;
+import org.msgpack.TemplateRegistry;
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.packer.Packer;
+import org.msgpack.template.Template;
+import org.msgpack.unpacker.Unpacker;
+
+
+/**
+ * Builds templates that write objects as maps keyed by field name instead
+ * of arrays ordered by index.
+ */
+public class MapReflectionTemplateBuilder extends ReflectionTemplateBuilder {
+
+    static class ReflectionMapTemplate implements Template {
+	private Class<?> targetClass;
+
+	private ReflectionFieldEntry[] entries;
+
+	private byte[][] keys;
+
+	// keys encoded as raws, header included, written with writePreEncoded
+	private byte[][] encodedKeys;
+
+	private int maxKeyLength;
+
+	// open addressing table of (index of entries + 1) by hash of the key
+	private int[] table;
+
+	private int tableMask;
+
+	ReflectionMapTemplate(Class<?> targetClass, ReflectionFieldEntry[] entries) {
+	    this.targetClass = targetClass;
+	    this.entries = entries;
+	    this.keys = new byte[entries.length][];
+	    this.encodedKeys = new byte[entries.length][];
+	    int size = 2;
+	    while (size < entries.length * 2) {
+		size <<= 1;
+	    }
+	    this.table = new int[size];
+	    this.tableMask = size - 1;
+	    for (int i = 0; i < entries.length; i++) {
+		try {
+		    keys[i] = entries[i].getName().getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+		    throw new TemplateBuildException(e);
+		}
+		encodedKeys[i] = encodeKey(keys[i]);
+		if (maxKeyLength < keys[i].length) {
+		    maxKeyLength = keys[i].length;
+		}
+		int slot = hash(keys[i], keys[i].length) & tableMask;
+		while (table[slot] != 0) {
+		    slot = (slot + 1) & tableMask;
+		}
+		table[slot] = i + 1;
+	    }
+	}
+
+	private static byte[] encodeKey(byte[] key) {
+	    BufferPacker pk = new BufferPacker();
+	    try {
+		pk.writeByteArray(key);
+	    } catch (IOException e) {
+		throw new TemplateBuildException(e);
+	    }
+	    return pk.toByteArray();
+	}
+
+	private static int hash(byte[] b, int len) {
+	    int h = 0;
+	    for (int i = 0; i < len; i++) {
+		h = 31 * h + b[i];
+	    }
+	    return h ^ (h >>> 16);
+	}
+
+	private int find(byte[] key, int len) {
+	    int slot = hash(key, len) & tableMask;
+	    while (true) {
+		int index = table[slot] - 1;
+		if (index < 0) {
+		    return -1;
+		}
+		if (equals(keys[index], key, len)) {
+		    return index;
+		}
+		slot = (slot + 1) & tableMask;
+	    }
+	}
+
+	private static boolean equals(byte[] key, byte[] b, int len) {
+	    if (key.length != len) {
+		return false;
+	    }
+	    for (int i = 0; i < len; i++) {
+		if (key[i] != b[i]) {
+		    return false;
+		}
+	    }
+	    return true;
+	}
+
+	public void write(Packer packer, Object target) throws IOException {
+	    try {
+		packer.writeMapBegin(entries.length);
+		for (int i = 0; i < entries.length; i++) {
+		    ReflectionFieldEntry e = entries[i];
+		    packer.writePreEncoded(encodedKeys[i]);
+		    Object obj = e.getField().get(target);
+		    if (obj == null) {
+			if (!e.isNotNullable() && !e.isOptional()) {
+			    throw new MessageTypeException();
+			}
+			packer.writeNil();
+		    } else {
+			e.write(packer, obj);
+		    }
+		}
+		packer.writeMapEnd();
+	    } catch (MessageTypeException e) {
+		throw e;
+	    } catch (IOException e) {
+		throw e;
+	    } catch (Exception e) {
+		throw new MessageTypeException(e);
+	    }
+	}
+
+	public Object read(Unpacker unpacker, Object to) throws IOException, MessageTypeException {
+	    try {
+		if (to == null) {
+		    to = targetClass.newInstance();
+		}
+
+		boolean[] found = new boolean[entries.length];
+		// a key longer than every field name is unknown without reading it
+		byte[] key = new byte[maxKeyLength];
+		int n = unpacker.readMapBegin();
+		for (int i = 0; i < n; i++) {
+		    int len = unpacker.readRawInto(key);
+		    int index = len < 0 ? -1 : find(key, len);
+		    if (index < 0) {
+			// unknown key
+			unpacker.skip();
+			continue;
+		    }
+		    ReflectionFieldEntry e = entries[index];
+		    found[index] = true;
+		    if (unpacker.tryReadNil()) {
+			if (e.isRequired()) {
+			    // Required + nil => exception
+			    throw new MessageTypeException();
+			} else if (e.isOptional()) {
+			    // Optional + nil => keep default value
+			} else { // Nullable
+				 // Nullable + nil => set null
+			    e.setNull(to);
+			}
+		    } else {
+			e.read(unpacker, to);
+		    }
+		}
+		unpacker.readMapEnd();
+
+		for (int i = 0; i < entries.length; i++) {
+		    if (!found[i] && (entries[i].isRequired() || entries[i].isNotNullable())) {
+			throw new MessageTypeException("Missing field: " + entries[i].getName());
+		    }
+		}
+		return to;
+	    } catch (MessageTypeException e) {
+		throw e;
+	    } catch (IOException e) {
+		throw e;
+	    } catch (Exception e) {
+		throw new MessageTypeException(e);
+	    }
+	}
+    }
+
+    public MapReflectionTemplateBuilder(TemplateRegistry registry) {
+	super(registry);
+    }
+
+    @Override
+    public Template buildTemplate(Class<?> type, FieldEntry[] entries) {
+	if (entries == null) {
+	    throw new NullPointerException("entries is null: " + type);
+	}
+	List<ReflectionFieldEntry> available = new ArrayList<ReflectionFieldEntry>();
+	for (ReflectionFieldEntry e : toReflectionFieldEntries(entries)) {
+	    if (e.isAvailable()) {
+		available.add(e);
+	    }
+	}
+	return new ReflectionMapTemplate(type,
+		available.toArray(new ReflectionFieldEntry[available.size()]));
+    }
+}
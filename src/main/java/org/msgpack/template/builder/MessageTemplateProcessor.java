@@ -0,0 +1,445 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template.builder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import org.msgpack.annotation.Ignore;
+import org.msgpack.annotation.Index;
+import org.msgpack.annotation.MessagePackMessage;
+import org.msgpack.annotation.NotNullable;
+import org.msgpack.annotation.Optional;
+import org.msgpack.annotation.Required;
+import org.msgpack.template.FieldOption;
+
+
+/**
+ * Generates a Template source file named &lt;class&gt;_$$_Template for each
+ * class annotated with @Message or @MessagePackMessage. Fields are chosen
+ * and ordered as FieldEntryReader does. The generated templates are found
+ * by ReflectionTemplateBuilder.loadTemplate before any template is built
+ * by reflection.
+ *
+ * The processor is not registered as a service; enable it with
+ * javac -processor org.msgpack.template.builder.MessageTemplateProcessor.
+ * Classes that the generated code cannot access (private fields, no
+ * visible no-argument constructor, type variables) are left to the
+ * reflection builder.
+ */
+@SupportedAnnotationTypes({ "org.msgpack.annotation.Message", "org.msgpack.annotation.MessagePackMessage" })
+public class MessageTemplateProcessor extends AbstractProcessor {
+
+    static final String TEMPLATE_SUFFIX = "_$$_Template";
+
+    private static class Entry {
+	VariableElement field;
+
+	FieldOption option;
+
+	Entry(VariableElement field, FieldOption option) {
+	    this.field = field;
+	    this.option = option;
+	}
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+	return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+	for (TypeElement annotation : annotations) {
+	    for (Element e : roundEnv.getElementsAnnotatedWith(annotation)) {
+		if (e.getKind() != ElementKind.CLASS) {
+		    continue;
+		}
+		TypeElement type = (TypeElement) e;
+		String reason = checkType(type);
+		if (reason != null) {
+		    note(type, reason);
+		    continue;
+		}
+		Entry[] entries;
+		try {
+		    entries = readEntries(type);
+		} catch (TemplateBuildException ex) {
+		    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, ex.getMessage(), type);
+		    continue;
+		}
+		reason = checkEntries(type, entries);
+		if (reason != null) {
+		    note(type, reason);
+		    continue;
+		}
+		try {
+		    generate(type, entries);
+		} catch (IOException ex) {
+		    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+			    "Cannot write template: " + ex.getMessage(), type);
+		}
+	    }
+	}
+	return false;
+    }
+
+    private void note(TypeElement type, String reason) {
+	processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+		"No template generated, " + reason, type);
+    }
+
+    private static String checkType(TypeElement type) {
+	if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+	    return "class is abstract";
+	}
+	if (!type.getTypeParameters().isEmpty()) {
+	    return "class has type parameters";
+	}
+	for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+	    NestingKind kind = ((TypeElement) e).getNestingKind();
+	    if (e.getModifiers().contains(Modifier.PRIVATE)) {
+		return "class is private";
+	    }
+	    if (kind == NestingKind.MEMBER && !e.getModifiers().contains(Modifier.STATIC)) {
+		return "class is an inner class";
+	    }
+	    if (kind == NestingKind.LOCAL || kind == NestingKind.ANONYMOUS) {
+		return "class is local or anonymous";
+	    }
+	}
+	List<ExecutableElement> constructors = ElementFilter.constructorsIn(type.getEnclosedElements());
+	for (ExecutableElement c : constructors) {
+	    if (c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE)) {
+		return null;
+	    }
+	}
+	return "no visible no-argument constructor";
+    }
+
+    private static String checkEntries(TypeElement type, Entry[] entries) {
+	for (Entry e : entries) {
+	    if (e == null) {
+		continue;
+	    }
+	    VariableElement f = e.field;
+	    if (f.getModifiers().contains(Modifier.PRIVATE)) {
+		return "field " + f.getSimpleName() + " is private";
+	    }
+	    // the generated class is in the package of the type
+	    if (!f.getModifiers().contains(Modifier.PUBLIC) && !packageOf(f).equals(packageOf(type))) {
+		return "field " + f.getSimpleName() + " is not visible";
+	    }
+	    if (hasTypeVariable(f.asType())) {
+		return "field " + f.getSimpleName() + " has a type variable";
+	    }
+	    if (f.asType().getKind() == TypeKind.CHAR) {
+		return "field " + f.getSimpleName() + " is a char";
+	    }
+	}
+	return null;
+    }
+
+    private static boolean hasTypeVariable(TypeMirror t) {
+	switch (t.getKind()) {
+	case TYPEVAR:
+	case WILDCARD:
+	    return true;
+	case ARRAY:
+	    return hasTypeVariable(((ArrayType) t).getComponentType());
+	case DECLARED:
+	    for (TypeMirror a : ((DeclaredType) t).getTypeArguments()) {
+		if (hasTypeVariable(a)) {
+		    return true;
+		}
+	    }
+	    return false;
+	default:
+	    return false;
+	}
+    }
+
+    private static PackageElement packageOf(Element e) {
+	while (!(e instanceof PackageElement)) {
+	    e = e.getEnclosingElement();
+	}
+	return (PackageElement) e;
+    }
+
+    private Entry[] readEntries(TypeElement type) {
+	// order: [fields of super class, ..., fields of this class]
+	List<TypeElement> classes = new ArrayList<TypeElement>();
+	for (TypeElement c = type; c != null && !c.getQualifiedName().contentEquals("java.lang.Object"); ) {
+	    classes.add(0, c);
+	    TypeMirror s = c.getSuperclass();
+	    c = s.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) s).asElement() : null;
+	}
+
+	FieldOption implicitOption = FieldOption.DEFAULT;
+	MessagePackMessage a = type.getAnnotation(MessagePackMessage.class);
+	if (a != null) {
+	    implicitOption = a.value();
+	}
+
+	List<Entry> indexed = new ArrayList<Entry>();
+	int maxIndex = -1;
+	for (TypeElement c : classes) {
+	    for (VariableElement f : ElementFilter.fieldsIn(c.getEnclosedElements())) {
+		FieldOption opt = readFieldOption(f, implicitOption);
+		if (opt == FieldOption.IGNORE) {
+		    continue;
+		}
+		Index i = f.getAnnotation(Index.class);
+		int index = i == null ? maxIndex + 1 : i.value();
+		if (indexed.size() > index && indexed.get(index) != null) {
+		    throw new TemplateBuildException("duplicated index: " + index);
+		}
+		if (index < 0) {
+		    throw new TemplateBuildException("invalid index: " + index);
+		}
+		while (indexed.size() <= index) {
+		    indexed.add(null);
+		}
+		indexed.set(index, new Entry(f, opt));
+		if (maxIndex < index) {
+		    maxIndex = index;
+		}
+	    }
+	}
+	return indexed.toArray(new Entry[indexed.size()]);
+    }
+
+    // same rules as FieldEntryReader.readFieldOption
+    private static FieldOption readFieldOption(VariableElement f, FieldOption implicitOption) {
+	Set<Modifier> mod = f.getModifiers();
+	if (mod.contains(Modifier.STATIC) || mod.contains(Modifier.FINAL)) {
+	    return FieldOption.IGNORE;
+	}
+	if (f.getAnnotation(Ignore.class) != null) {
+	    return FieldOption.IGNORE;
+	} else if (f.getAnnotation(Required.class) != null) {
+	    return FieldOption.REQUIRED;
+	} else if (f.getAnnotation(Optional.class) != null) {
+	    return FieldOption.OPTIONAL;
+	} else if (f.getAnnotation(NotNullable.class) != null) {
+	    return FieldOption.NOTNULLABLE;
+	}
+	if (implicitOption != FieldOption.DEFAULT) {
+	    return implicitOption;
+	}
+	if (mod.contains(Modifier.TRANSIENT)) {
+	    return FieldOption.IGNORE;
+	} else if (mod.contains(Modifier.PUBLIC)) {
+	    return FieldOption.REQUIRED;
+	} else {
+	    return FieldOption.IGNORE;
+	}
+    }
+
+    private void generate(TypeElement type, Entry[] entries) throws IOException {
+	String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+	String packageName = packageOf(type).getQualifiedName().toString();
+	String simpleName = (packageName.length() == 0 ? binaryName
+		: binaryName.substring(packageName.length() + 1)) + TEMPLATE_SUFFIX;
+	String typeName = type.getQualifiedName().toString();
+
+	int minimumArrayLength = 0;
+	for (int i = 0; i < entries.length; i++) {
+	    Entry e = entries[i];
+	    if (e != null && (e.option == FieldOption.REQUIRED || e.option == FieldOption.NOTNULLABLE)) {
+		minimumArrayLength = i + 1;
+	    }
+	}
+
+	StringBuilder sb = new StringBuilder();
+	if (packageName.length() > 0) {
+	    sb.append("package ").append(packageName).append(";\n\n");
+	}
+	sb.append("public class ").append(simpleName).append(" implements org.msgpack.template.Template {\n");
+	for (int i = 0; i < entries.length; i++) {
+	    if (entries[i] != null && !isPrimitive(entries[i])) {
+		sb.append("    private org.msgpack.template.Template t").append(i).append(";\n");
+	    }
+	}
+
+	sb.append("\n    public ").append(simpleName).append("(org.msgpack.TemplateRegistry registry) {\n");
+	for (int i = 0; i < entries.length; i++) {
+	    Entry e = entries[i];
+	    if (e == null || isPrimitive(e)) {
+		continue;
+	    }
+	    TypeMirror t = e.field.asType();
+	    sb.append("        t").append(i).append(" = registry.lookup(");
+	    if (t.getKind() == TypeKind.DECLARED && !((DeclaredType) t).getTypeArguments().isEmpty()) {
+		String owner = ((TypeElement) e.field.getEnclosingElement()).getQualifiedName().toString();
+		sb.append("genericType(").append(owner).append(".class, \"").append(e.field.getSimpleName()).append("\")");
+	    } else {
+		sb.append(erasure(t)).append(".class");
+	    }
+	    sb.append(");\n");
+	}
+	sb.append("    }\n\n");
+
+	sb.append("    private static java.lang.reflect.Type genericType(Class<?> c, String name) {\n");
+	sb.append("        try {\n");
+	sb.append("            return c.getDeclaredField(name).getGenericType();\n");
+	sb.append("        } catch (NoSuchFieldException e) {\n");
+	sb.append("            throw new org.msgpack.template.builder.TemplateBuildException(e);\n");
+	sb.append("        }\n");
+	sb.append("    }\n\n");
+
+	sb.append("    public void write(org.msgpack.packer.Packer pk, Object o) throws java.io.IOException {\n");
+	sb.append("        if (o == null) {\n");
+	sb.append("            throw new org.msgpack.MessageTypeException(\"Attempted to write null\");\n");
+	sb.append("        }\n");
+	sb.append("        ").append(typeName).append(" target = (").append(typeName).append(") o;\n");
+	sb.append("        pk.writeArrayBegin(").append(entries.length).append(");\n");
+	for (int i = 0; i < entries.length; i++) {
+	    Entry e = entries[i];
+	    if (e == null) {
+		sb.append("        pk.writeNil();\n");
+		continue;
+	    }
+	    String f = "target." + e.field.getSimpleName();
+	    if (isPrimitive(e)) {
+		sb.append("        pk.").append(primitiveMethod("write", e)).append("(").append(f).append(");\n");
+	    } else {
+		sb.append("        if (").append(f).append(" == null) {\n");
+		if (e.option == FieldOption.REQUIRED) {
+		    sb.append("            throw new org.msgpack.MessageTypeException();\n");
+		} else {
+		    sb.append("            pk.writeNil();\n");
+		}
+		sb.append("        } else {\n");
+		sb.append("            t").append(i).append(".write(pk, ").append(f).append(");\n");
+		sb.append("        }\n");
+	    }
+	}
+	sb.append("        pk.writeArrayEnd();\n");
+	sb.append("    }\n\n");
+
+	sb.append("    @SuppressWarnings(\"unchecked\")\n");
+	sb.append("    public Object read(org.msgpack.unpacker.Unpacker u, Object to) throws java.io.IOException {\n");
+	sb.append("        ").append(typeName).append(" target = to == null ? new ").append(typeName)
+		.append("() : (").append(typeName).append(") to;\n");
+	sb.append("        int length = u.readArrayBegin();\n");
+	sb.append("        if (length < ").append(minimumArrayLength).append(") {\n");
+	sb.append("            throw new org.msgpack.MessageTypeException();\n");
+	sb.append("        }\n");
+	for (int i = 0; i < entries.length; i++) {
+	    Entry e = entries[i];
+	    String indent = "        ";
+	    if (i >= minimumArrayLength) {
+		sb.append("        if (length > ").append(i).append(") {\n");
+		indent = "            ";
+	    }
+	    if (e == null) {
+		sb.append(indent).append("u.skip();\n");
+	    } else {
+		String f = "target." + e.field.getSimpleName();
+		sb.append(indent).append("if (u.tryReadNil()) {\n");
+		if (e.option == FieldOption.REQUIRED && i < minimumArrayLength) {
+		    sb.append(indent).append("    throw new org.msgpack.MessageTypeException();\n");
+		} else if (e.option != FieldOption.OPTIONAL && i < minimumArrayLength) {
+		    if (isPrimitive(e)) {
+			sb.append(indent).append("    throw new org.msgpack.MessageTypeException();\n");
+		    } else {
+			sb.append(indent).append("    ").append(f).append(" = null;\n");
+		    }
+		}
+		sb.append(indent).append("} else {\n");
+		if (isPrimitive(e)) {
+		    sb.append(indent).append("    ").append(f).append(" = u.").append(primitiveMethod("read", e)).append("();\n");
+		} else {
+		    sb.append(indent).append("    ").append(f).append(" = (").append(e.field.asType())
+			    .append(") t").append(i).append(".read(u, ").append(f).append(");\n");
+		}
+		sb.append(indent).append("}\n");
+	    }
+	    if (i >= minimumArrayLength) {
+		sb.append("        }\n");
+	    }
+	}
+	sb.append("        for (int i = ").append(entries.length).append("; i < length; i++) {\n");
+	sb.append("            u.skip();\n");
+	sb.append("        }\n");
+	sb.append("        u.readArrayEnd();\n");
+	sb.append("        return target;\n");
+	sb.append("    }\n");
+	sb.append("}\n");
+
+	Writer w = processingEnv.getFiler().createSourceFile(
+		(packageName.length() == 0 ? "" : packageName + ".") + simpleName, type).openWriter();
+	try {
+	    w.write(sb.toString());
+	} finally {
+	    w.close();
+	}
+    }
+
+    private static boolean isPrimitive(Entry e) {
+	return e.field.asType().getKind().isPrimitive();
+    }
+
+    private static String primitiveMethod(String prefix, Entry e) {
+	switch (e.field.asType().getKind()) {
+	case BOOLEAN:
+	    return prefix + "Boolean";
+	case BYTE:
+	    return prefix + "Byte";
+	case SHORT:
+	    return prefix + "Short";
+	case INT:
+	    return prefix + "Int";
+	case LONG:
+	    return prefix + "Long";
+	case FLOAT:
+	    return prefix + "Float";
+	case DOUBLE:
+	    return prefix + "Double";
+	default:
+	    throw new IllegalArgumentException(e.field.asType().toString());
+	}
+    }
+
+    private String erasure(TypeMirror t) {
+	return processingEnv.getTypeUtils().erasure(t).toString();
+    }
+}
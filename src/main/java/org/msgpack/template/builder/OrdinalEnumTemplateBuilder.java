@@ -0,0 +1,73 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template.builder;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import org.msgpack.annotation.MessagePackOrdinalEnum;
+import org.msgpack.annotation.OrdinalEnum;
+import org.msgpack.template.OrdinalEnumTemplate;
+import org.msgpack.template.Template;
+
+
+public class OrdinalEnumTemplateBuilder implements TemplateBuilder {
+
+    public boolean matchType(Type targetType) {
+	if (!(targetType instanceof Class)) {
+	    return false;
+	}
+	Class<?> c = getEnumClass((Class<?>) targetType);
+	return c != null && (isAnnotated(c, OrdinalEnum.class) || isAnnotated(c, MessagePackOrdinalEnum.class));
+    }
+
+    public Template buildTemplate(Type targetType) throws TemplateBuildException {
+	Class<?> c = getEnumClass((Class<?>) targetType);
+	if (c == null) {
+	    throw new TemplateBuildException("Cannot build ordinal enum template for non-enum class: " + targetType);
+	}
+	return new OrdinalEnumTemplate(c);
+    }
+
+    /**
+     * Returns the enum that declares the class, as Enum.getDeclaringClass()
+     * does. A constant with a body is an anonymous subclass of its enum.
+     */
+    private static Class<?> getEnumClass(Class<?> c) {
+	if (c.isEnum()) {
+	    return c;
+	}
+	Class<?> s = c.getSuperclass();
+	if (s != null && s.isEnum()) {
+	    return s;
+	}
+	return null;
+    }
+
+    public void writeTemplate(Type type, String directoryName) {
+	throw new UnsupportedOperationException(type.toString());
+    }
+
+    public Template loadTemplate(Type type) {
+	return null;
+    }
+
+    private static boolean isAnnotated(Class<?> c, Class<? extends Annotation> with) {
+	return c.getAnnotation(with) != null;
+    }
+}
@@ -19,7 +19,9 @@ package org.msgpack.template.builder;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
 
 import org.msgpack.MessagePack;
 import org.msgpack.MessageTypeException;
@@ -33,8 +35,36 @@ import org.msgpack.unpacker.Unpacker;
 public class ReflectionTemplateBuilder extends AbstractTemplateBuilder {
 
     static abstract class ReflectionFieldEntry extends FieldEntry {
+	private FieldEntry entry;
+
 	ReflectionFieldEntry(FieldEntry e) {
 	    super(e.getField(), e.getOption());
+	    entry = e;
+	}
+
+	@Override
+	public String getName() {
+	    return entry.getName();
+	}
+
+	@Override
+	public Class<?> getType() {
+	    return entry.getType();
+	}
+
+	@Override
+	public Type getGenericType() {
+	    return entry.getGenericType();
+	}
+
+	@Override
+	public Object get(Object target) {
+	    return entry.get(target);
+	}
+
+	@Override
+	public void set(Object target, Object value) {
+	    entry.set(target, value);
 	}
 
 	public abstract void write(Packer packer, Object target) throws IOException;
@@ -42,7 +72,7 @@ public class ReflectionTemplateBuilder extends AbstractTemplateBuilder {
 	public abstract void read(Unpacker unpacker, Object target) throws IOException, MessageTypeException, IllegalAccessException;
 
 	public void setNull(Object target) throws IllegalAccessException {
-	    getField().set(target, null);
+	    set(target, null);
 	}
     }
 
@@ -66,17 +96,51 @@ public class ReflectionTemplateBuilder extends AbstractTemplateBuilder {
 	    this.template = template;
 	}
 
+	Template getTemplate() {
+	    return template;
+	}
+
 	public void write(Packer packer, Object target) throws IOException {
 	    template.write(packer, target);
 	}
 
 	public void read(Unpacker unpacker, Object target) throws IOException, MessageTypeException, IllegalAccessException {
-	    Field f = getField();
-	    Class<Object> type = (Class<Object>) f.getType();
-	    Object fieldReference = f.get(target);
+	    Object fieldReference = get(target);
 	    Object valueReference = template.read(unpacker, fieldReference);
 	    if (valueReference != fieldReference) {
-		f.set(target, valueReference);
+		set(target, valueReference);
+	    }
+	}
+    }
+
+    /**
+     * Field of a final class whose template is a plain ReflectionTemplate.
+     * The entry calls the child template's final writeObject and readObject
+     * methods instead of going through the Template interface. The child
+     * still loops over its own entries; FusedTemplateGenerator inlines
+     * them into the template of the parent where the classes allow it.
+     */
+    static class NestedFieldEntry extends ReflectionFieldEntry {
+	private ReflectionTemplate template;
+
+	NestedFieldEntry(FieldEntry e, ReflectionTemplate template) {
+	    super(e);
+	    this.template = template;
+	}
+
+	ReflectionTemplate getTemplate() {
+	    return template;
+	}
+
+	public void write(Packer packer, Object target) throws IOException {
+	    template.writeObject(packer, target);
+	}
+
+	public void read(Unpacker unpacker, Object target) throws IOException, MessageTypeException, IllegalAccessException {
+	    Object fieldReference = get(target);
+	    Object valueReference = template.readObject(unpacker, fieldReference);
+	    if (valueReference != fieldReference) {
+		set(target, valueReference);
 	    }
 	}
     }
@@ -182,12 +246,19 @@ public class ReflectionTemplateBuilder extends AbstractTemplateBuilder {
     static class ReflectionTemplate implements Template {
 	private Class<?> targetClass;
 
-	private ReflectionFieldEntry[] entries;
+	ReflectionFieldEntry[] entries;
+
+	int minimumArrayLength;
 
-	private int minimumArrayLength;
+	// generated template that inlines nested classes, or null
+	private Template fused;
 
 	ReflectionTemplate(Class<?> targetClass, ReflectionFieldEntry[] entries) {
 	    this.targetClass = targetClass;
+	    setEntries(entries);
+	}
+
+	void setEntries(ReflectionFieldEntry[] entries) {
 	    this.entries = entries;
 	    this.minimumArrayLength = 0;
 	    for (int i = 0; i < entries.length; i++) {
@@ -198,15 +269,64 @@ public class ReflectionTemplateBuilder extends AbstractTemplateBuilder {
 	    }
 	}
 
+	Object newInstance() throws MessageTypeException {
+	    try {
+		return targetClass.newInstance();
+	    } catch (Exception e) {
+		throw new MessageTypeException(e);
+	    }
+	}
+
+	Template getFused() {
+	    return fused;
+	}
+
+	void setFused(Template fused) {
+	    this.fused = fused;
+	}
+
 	public void write(Packer packer, Object target) throws IOException {
+	    if (fused != null) {
+		fused.write(packer, target);
+	    } else {
+		writeObject(packer, target);
+	    }
+	}
+
+	public Object read(Unpacker unpacker, Object to) throws IOException, MessageTypeException {
+	    if (fused != null) {
+		return fused.read(unpacker, to);
+	    }
+	    return readObject(unpacker, to);
+	}
+
+	final void writeObject(Packer packer, Object target) throws IOException {
+	    packer.writeArrayBegin(entries.length);
+	    writeFields(packer, target);
+	    packer.writeArrayEnd();
+	}
+
+	final Object readObject(Unpacker unpacker, Object to) throws IOException, MessageTypeException {
+	    if (to == null) {
+		to = newInstance();
+	    }
+	    int length = unpacker.readArrayBegin();
+	    readFields(unpacker, to, length);
+	    unpacker.readArrayEnd();
+	    return to;
+	}
+
+	/**
+	 * Writes the entries.length field values, without the array header.
+	 */
+	final void writeFields(Packer packer, Object target) throws IOException {
 	    try {
-		packer.writeArrayBegin(entries.length);
 		for (ReflectionFieldEntry e : entries) {
 		    if (!e.isAvailable()) {
 			packer.writeNil();
 			continue;
 		    }
-		    Object obj = e.getField().get(target);
+		    Object obj = e.get(target);
 		    if (obj == null) {
 			if (!e.isNotNullable() && !e.isOptional()) {
 			    throw new MessageTypeException();
@@ -216,7 +336,6 @@ public class ReflectionTemplateBuilder extends AbstractTemplateBuilder {
 			e.write(packer, obj);
 		    }
 		}
-		packer.writeArrayEnd();
 	    } catch (MessageTypeException e) {
 		throw e;
 	    } catch (IOException e) {
@@ -226,13 +345,11 @@ public class ReflectionTemplateBuilder extends AbstractTemplateBuilder {
 	    }
 	}
 
-	public Object read(Unpacker unpacker, Object to) throws IOException, MessageTypeException {
+	/**
+	 * Reads length field values into the object, without the array header.
+	 */
+	final void readFields(Unpacker unpacker, Object to, int length) throws IOException, MessageTypeException {
 	    try {
-		if (to == null) {
-		    to = targetClass.newInstance();
-		}
-
-		int length = unpacker.readArrayBegin();
 		if (length < minimumArrayLength) {
 		    throw new MessageTypeException();
 		}
@@ -241,7 +358,7 @@ public class ReflectionTemplateBuilder extends AbstractTemplateBuilder {
 		for (i = 0; i < minimumArrayLength; ++i) {
 		    ReflectionFieldEntry e = entries[i];
 		    if (!e.isAvailable()) {
-			unpacker.readValue(); // FIXME
+			unpacker.skip();
 			continue;
 		    }
 
@@ -264,7 +381,7 @@ public class ReflectionTemplateBuilder extends AbstractTemplateBuilder {
 		for (; i < max; ++i) {
 		    ReflectionFieldEntry e = entries[i];
 		    if (!e.isAvailable()) {
-			unpacker.readValue(); // FIXME
+			unpacker.skip();
 			continue;
 		    }
 
@@ -278,10 +395,8 @@ public class ReflectionTemplateBuilder extends AbstractTemplateBuilder {
 
 		// latter entries are all Optional + nil => keep default value
 		for (; i < length; ++i) {
-		    unpacker.readValue(); // FIXME
+		    unpacker.skip();
 		}
-		unpacker.readArrayEnd();
-		return to;
 	    } catch (MessageTypeException e) {
 		throw e;
 	    } catch (IOException e) {
@@ -300,19 +415,60 @@ public class ReflectionTemplateBuilder extends AbstractTemplateBuilder {
 	this.registry = registry;
     }
 
+    public boolean matchType(Type targetType) {
+	return targetType instanceof Class;
+    }
+
     @Override
     public FieldEntryReader getFieldEntryReader() {
 	return reader;
     }
 
+    /**
+     * Loads the template generated by {@link MessageTemplateProcessor} for
+     * the type, if it is on the class path.
+     */
+    @Override
+    public Template loadTemplate(Type type) {
+	if (!(type instanceof Class)) {
+	    return null;
+	}
+	Class<?> c = (Class<?>) type;
+	Class<?> tmplClass;
+	try {
+	    tmplClass = Class.forName(c.getName() + MessageTemplateProcessor.TEMPLATE_SUFFIX, true, c.getClassLoader());
+	} catch (ClassNotFoundException e) {
+	    return null;
+	}
+	try {
+	    return (Template) tmplClass.getConstructor(TemplateRegistry.class).newInstance(registry);
+	} catch (InvocationTargetException e) {
+	    throw new TemplateBuildException("Cannot load template " + tmplClass.getName(), e.getCause());
+	} catch (Exception e) {
+	    throw new TemplateBuildException("Cannot load template " + tmplClass.getName(), e);
+	}
+    }
+
     @Override
     public Template buildTemplate(Class<?> type, FieldEntry[] entries) {
 	if (entries == null) {
 	    throw new NullPointerException("entries is null: " + type);
 	}
+	ReflectionTemplate tmpl = new ReflectionTemplate(type, toReflectionFieldEntries(entries));
+	try {
+	    tmpl.setFused(FusedTemplateGenerator.generate(type, tmpl));
+	} catch (TemplateBuildException e) {
+	    // javassist cannot compile or define the class; use reflection
+	}
+	return tmpl;
+    }
 
+    ReflectionFieldEntry[] toReflectionFieldEntries(FieldEntry[] entries) {
 	// TODO Now it is simply cast.
 	for (FieldEntry e : entries) {
+	    if (!e.isAvailable()) {
+		continue;
+	    }
 	    Field f = ((FieldEntry) e).getField();
 	    int mod = f.getModifiers();
 	    if (!Modifier.isPublic(mod)) {
@@ -323,10 +479,12 @@ public class ReflectionTemplateBuilder extends AbstractTemplateBuilder {
 	ReflectionFieldEntry[] res = new ReflectionFieldEntry[entries.length];
 	for (int i = 0; i < entries.length; i++) {
 	    FieldEntry e = (FieldEntry) entries[i];
-	    Class<?> t = e.getType();
 	    if (!e.isAvailable()) {
 		res[i] = new NullFieldEntry(e);
-	    } else if (t.equals(boolean.class)) {
+		continue;
+	    }
+	    Class<?> t = e.getType();
+	    if (t.equals(boolean.class)) {
 		res[i] = new BooleanFieldEntry(e);
 	    } else if (t.equals(byte.class)) {
 		res[i] = new ByteFieldEntry(e);
@@ -341,12 +499,14 @@ public class ReflectionTemplateBuilder extends AbstractTemplateBuilder {
 	    } else if (t.equals(double.class)) {
 		res[i] = new DoubleFieldEntry(e);
 	    } else {
-		Template tmpl = registry.lookup((Class<?>) e.getGenericType());
-		// TODO #MN
-		//Template tmpl = msgpack.lookup(e.getGenericType(), true);
-		res[i] = new ObjectFieldEntry(e, tmpl);
+		Template tmpl = registry.lookup(e.getGenericType());
+		if (Modifier.isFinal(t.getModifiers()) && tmpl.getClass() == ReflectionTemplate.class) {
+		    res[i] = new NestedFieldEntry(e, (ReflectionTemplate) tmpl);
+		} else {
+		    res[i] = new ObjectFieldEntry(e, tmpl);
+		}
 	    }
 	}
-	return new ReflectionTemplate(type, res);
+	return res;
     }
 }
@@ -23,6 +23,8 @@ import org.msgpack.template.Template;
 
 
 public interface TemplateBuilder {
+    boolean matchType(Type targetType);
+
     Template buildTemplate(Type type) throws TemplateBuildException;
 
     void writeTemplate(Type type, String directoryName);
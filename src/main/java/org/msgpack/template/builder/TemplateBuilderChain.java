@@ -0,0 +1,58 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.template.builder;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.msgpack.TemplateRegistry;
+
+
+public class TemplateBuilderChain {
+
+    private List<TemplateBuilder> builders;
+
+    private AbstractTemplateBuilder forceBuilder;
+
+    public TemplateBuilderChain(TemplateRegistry registry) {
+	builders = new ArrayList<TemplateBuilder>();
+	forceBuilder = new ReflectionTemplateBuilder(registry);
+	builders.add(new OrdinalEnumTemplateBuilder());
+	builders.add(new DelegateTemplateBuilder(registry));
+	builders.add(new CreatorTemplateBuilder(registry));
+	builders.add(new BeansTemplateBuilder(registry));
+	builders.add(forceBuilder);
+    }
+
+    /**
+     * Returns the first builder that matches the type, or null.
+     */
+    public TemplateBuilder select(Type targetType) {
+	for (TemplateBuilder builder : builders) {
+	    if (builder.matchType(targetType)) {
+		return builder;
+	    }
+	}
+	return null;
+    }
+
+    public AbstractTemplateBuilder getForceBuilder() {
+	return forceBuilder;
+    }
+}
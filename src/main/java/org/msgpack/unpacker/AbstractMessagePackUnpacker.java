@@ -19,7 +19,9 @@ package org.msgpack.unpacker;
 
 import java.io.IOException;
 import java.io.EOFException;
+import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import org.msgpack.MessageTypeException;
 import org.msgpack.packer.Unconverter;
 import org.msgpack.io.Input;
@@ -36,6 +38,11 @@ abstract class AbstractMessagePackUnpacker extends Unpacker {
 
     private final UnpackerStack stack = new UnpackerStack();
 
+    private RawDictionary dictionary;
+    private int lastDictionaryIndex;
+
+    private boolean byteBufferSlices;
+
     private final IntAccept intAccept = new IntAccept();
     private final LongAccept longAccept = new LongAccept();
     private final BigIntegerAccept bigIntegerAccept = new BigIntegerAccept();
@@ -50,6 +57,25 @@ abstract class AbstractMessagePackUnpacker extends Unpacker {
         this.in = in;
     }
 
+    /**
+     * Enables the string dictionary mode to read streams written by
+     * a packer whose dictionary mode is enabled.
+     */
+    public void enableDictionary() {
+        if(dictionary == null) {
+            dictionary = new RawDictionary();
+        }
+    }
+
+    /**
+     * Makes readByteBuffer() return read-only slices of the input instead
+     * of copies where the input is backed by buffers, as it is for
+     * BufferUnpacker.wrap(). The slices share the memory of the input.
+     */
+    public void enableByteBufferSlices() {
+        byteBufferSlices = true;
+    }
+
     private byte getHeadByte() throws IOException {
         byte b = headByte;
         if(b == REQUIRE_TO_READ_HEAD) {
@@ -68,6 +94,7 @@ abstract class AbstractMessagePackUnpacker extends Unpacker {
     final boolean readOneWithoutStack(Accept a) throws IOException {
         if(raw != null) {
             readRawBodyCont();
+            registerRaw();
             a.acceptRaw(raw);
             raw = null;
             headByte = REQUIRE_TO_READ_HEAD;
@@ -98,6 +125,7 @@ abstract class AbstractMessagePackUnpacker extends Unpacker {
                 return true;
             }
             readRawBody(count);
+            registerRaw();
             a.acceptRaw(raw);
             raw = null;
             headByte = REQUIRE_TO_READ_HEAD;
@@ -124,6 +152,13 @@ abstract class AbstractMessagePackUnpacker extends Unpacker {
             return false;
         }
 
+        if(dictionary != null && (b == (byte)0xd4 || b == (byte)0xd5)) {
+            byte[] ref = dictionary.getRaw(readReferenceIndex(b));
+            a.acceptRaw(ref.clone());
+            headByte = REQUIRE_TO_READ_HEAD;
+            return true;
+        }
+
         switch(b & 0xff) {
         case 0xc0:  // nil
             a.acceptNil();
@@ -198,6 +233,7 @@ abstract class AbstractMessagePackUnpacker extends Unpacker {
                 }
                 in.advance();
                 readRawBody(count);
+                registerRaw();
                 a.acceptRaw(raw);
                 raw = null;
                 headByte = REQUIRE_TO_READ_HEAD;
@@ -217,6 +253,7 @@ abstract class AbstractMessagePackUnpacker extends Unpacker {
                 }
                 in.advance();
                 readRawBody(count);
+                registerRaw();
                 a.acceptRaw(raw);
                 raw = null;
                 headByte = REQUIRE_TO_READ_HEAD;
@@ -276,6 +313,23 @@ abstract class AbstractMessagePackUnpacker extends Unpacker {
         }
     }
 
+    private void registerRaw() {
+        if(dictionary != null) {
+            lastDictionaryIndex = dictionary.register(raw);
+        }
+    }
+
+    private int readReferenceIndex(byte b) throws IOException {
+        int index;
+        if(b == (byte)0xd4) {
+            index = in.getByte() & 0xff;
+        } else {
+            index = in.getShort() & 0xffff;
+        }
+        in.advance();
+        return index;
+    }
+
     private void readRawBody(int size) throws IOException {
         raw = new byte[size];
         rawFilled = 0;
@@ -413,6 +467,110 @@ abstract class AbstractMessagePackUnpacker extends Unpacker {
         return byteArrayAccept.value;
     }
 
+    /**
+     * Reads the header of a raw, or returns -1 without reading anything
+     * if the next value is not a raw.
+     */
+    private int readRawHeader() throws IOException {
+        stack.checkCount();
+        byte b = getHeadByte();
+        int count;
+        if((b & 0xe0) == 0xa0) {  // FixRaw
+            count = b & 0x1f;
+        } else if(b == (byte)0xda) {  // raw 16
+            count = in.getShort() & 0xffff;
+            in.advance();
+        } else if(b == (byte)0xdb) {  // raw 32
+            count = in.getInt();
+            if(count < 0) {
+                throw new IOException("Raw size too large");
+            }
+            in.advance();
+        } else {
+            return -1;
+        }
+        return count;
+    }
+
+    @Override
+    public int readRawInto(byte[] b) throws IOException {
+        if(raw != null || dictionary != null) {
+            return super.readRawInto(b);
+        }
+        int count = readRawHeader();
+        if(count < 0) {
+            return super.readRawInto(b);
+        }
+        headByte = REQUIRE_TO_READ_HEAD;
+        stack.reduceCount();
+        if(count > b.length) {
+            new RawInputStream(in, count).close();
+            return -1;
+        }
+        if(count > 0 && in.read(b, 0, count) < count) {
+            throw new EOFException();
+        }
+        return count;
+    }
+
+    @Override
+    public InputStream readRawAsStream() throws IOException {
+        if(raw != null || dictionary != null) {
+            return super.readRawAsStream();
+        }
+        int count = readRawHeader();
+        if(count < 0) {
+            return super.readRawAsStream();
+        }
+        headByte = REQUIRE_TO_READ_HEAD;
+        stack.reduceCount();
+        return new RawInputStream(in, count);
+    }
+
+    @Override
+    public ByteBuffer readByteBuffer() throws IOException {
+        if(!byteBufferSlices || raw != null || dictionary != null) {
+            return super.readByteBuffer();
+        }
+        int count = readRawHeader();
+        if(count < 0) {
+            return super.readByteBuffer();
+        }
+        ByteBuffer slice = in.readSlice(count);
+        if(slice == null) {
+            readRawBody(count);
+            slice = ByteBuffer.wrap(raw);
+            raw = null;
+        }
+        headByte = REQUIRE_TO_READ_HEAD;
+        stack.reduceCount();
+        return slice;
+    }
+
+    @Override
+    public String readString() throws IOException {
+        if(dictionary == null) {
+            return super.readString();
+        }
+        stack.checkCount();
+        byte b = getHeadByte();
+        if(raw == null && (b == (byte)0xd4 || b == (byte)0xd5)) {
+            // the same String instance is returned for every reference
+            String s = dictionary.getString(readReferenceIndex(b));
+            headByte = REQUIRE_TO_READ_HEAD;
+            stack.reduceCount();
+            return s;
+        }
+        lastDictionaryIndex = -1;
+        readOneWithoutStack(byteArrayAccept);
+        stack.reduceCount();
+        String s = RawDictionary.decode(byteArrayAccept.value);
+        if(lastDictionaryIndex >= 0) {
+            dictionary.setString(lastDictionaryIndex, s);
+        }
+        return s;
+    }
+
     @Override
     public int readArrayBegin() throws IOException {
         readOne(arrayAccept);
@@ -507,14 +665,11 @@ abstract class AbstractMessagePackUnpacker extends Unpacker {
         while(true) {
             while(stack.getTopCount() == 0) {
                 stack.pop();
-                if(stack.getTopCount() == 0) {
-                    stack.pop();
-                    if(stack.getDepth() <= targetDepth) {
-                        return;
-                    }
+                if(stack.getDepth() <= targetDepth) {
+                    return;
                 }
             }
-            readOne(valueAccept);
+            readOne(skipAccept);
         }
     }
 }
@@ -0,0 +1,37 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.unpacker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import org.msgpack.io.BlockInflaterInput;
+
+public class CompressedUnpacker extends AbstractMessagePackUnpacker {
+    public CompressedUnpacker(InputStream stream) {
+        super(new BlockInflaterInput(stream));
+    }
+
+    public CompressedUnpacker(InputStream stream, ExecutorService executor, int readAhead) {
+        super(new BlockInflaterInput(stream, executor, readAhead));
+    }
+
+    public void close() throws IOException {
+        ((BlockInflaterInput) in).close();
+    }
+}
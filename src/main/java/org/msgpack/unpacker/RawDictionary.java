@@ -0,0 +1,88 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.unpacker;
+
+import java.io.UnsupportedEncodingException;
+import org.msgpack.MessageTypeException;
+
+final class RawDictionary {
+    static final int MIN_RAW_LENGTH = 2;
+    static final int MAX_RAW_LENGTH = 64;
+    static final int MAX_ENTRIES = 65536;
+
+    private byte[][] raws;
+    private String[] strings;
+    private int size;
+
+    RawDictionary() {
+        this.raws = new byte[16][];
+        this.strings = new String[16];
+        this.size = 0;
+    }
+
+    // returns the index of the registered raw or -1
+    int register(byte[] raw) {
+        if(size >= MAX_ENTRIES || raw.length < MIN_RAW_LENGTH || MAX_RAW_LENGTH < raw.length) {
+            return -1;
+        }
+        if(size == raws.length) {
+            byte[][] nraws = new byte[size*2][];
+            System.arraycopy(raws, 0, nraws, 0, size);
+            raws = nraws;
+            String[] nstrings = new String[size*2];
+            System.arraycopy(strings, 0, nstrings, 0, size);
+            strings = nstrings;
+        }
+        raws[size] = raw;
+        return size++;
+    }
+
+    byte[] getRaw(int index) {
+        checkIndex(index);
+        return raws[index];
+    }
+
+    String getString(int index) {
+        checkIndex(index);
+        String s = strings[index];
+        if(s == null) {
+            s = decode(raws[index]);
+            strings[index] = s;
+        }
+        return s;
+    }
+
+    void setString(int index, String s) {
+        strings[index] = s;
+    }
+
+    private void checkIndex(int index) {
+        if(index < 0 || size <= index) {
+            throw new MessageTypeException("Invalid dictionary reference: "+index);
+        }
+    }
+
+    static String decode(byte[] raw) {
+        // TODO encoding error
+        try {
+            return new String(raw, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new MessageTypeException();
+        }
+    }
+}
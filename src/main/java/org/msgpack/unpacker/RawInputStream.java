@@ -0,0 +1,73 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.unpacker;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import org.msgpack.io.Input;
+
+/**
+ * Reads the body of a raw directly from the input of an unpacker.
+ * Closing the stream skips the rest of the body.
+ */
+final class RawInputStream extends InputStream {
+    private final Input in;
+    private int remaining;
+
+    RawInputStream(Input in, int length) {
+        this.in = in;
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(remaining == 0) {
+            return -1;
+        }
+        byte b = in.readByte();
+        remaining--;
+        return b & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) {
+            return 0;
+        }
+        if(remaining == 0) {
+            return -1;
+        }
+        int n = in.read(b, off, Math.min(len, remaining));
+        if(n <= 0) {
+            throw new EOFException();
+        }
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(remaining > 0) {
+            byte[] skip = new byte[Math.min(remaining, 8192)];
+            while(remaining > 0) {
+                read(skip, 0, skip.length);
+            }
+        }
+    }
+}
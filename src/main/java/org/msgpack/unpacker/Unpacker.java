@@ -17,20 +17,26 @@
 //
 package org.msgpack.unpacker;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.EOFException;
 import java.nio.ByteBuffer;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.lang.Iterable;
 import org.msgpack.value.Value;
 import org.msgpack.MessagePack;
+import org.msgpack.MessageTypeException;
 import org.msgpack.packer.Unconverter;
 
 public abstract class Unpacker implements Iterable<Value> {
     protected MessagePack msgpack = new MessagePack();  // TODO initialize
 
+    private List<Object> objectReferences;
+
     public abstract boolean tryReadNil() throws IOException;
 
     public abstract boolean trySkipNil() throws IOException;
@@ -56,6 +62,33 @@ public abstract class Unpacker implements Iterable<Value> {
 
     public abstract byte[] readByteArray() throws IOException;
 
+    public ByteBuffer readByteBuffer() throws IOException {
+        return ByteBuffer.wrap(readByteArray());
+    }
+
+    /**
+     * Reads the body of the next raw into b, which the caller may reuse,
+     * and returns its length. If the raw is longer than b, its body is
+     * skipped and -1 is returned.
+     */
+    public int readRawInto(byte[] b) throws IOException {
+        byte[] raw = readByteArray();
+        if(raw.length > b.length) {
+            return -1;
+        }
+        System.arraycopy(raw, 0, b, 0, raw.length);
+        return raw.length;
+    }
+
+    /**
+     * Returns a stream over the body of the next raw, which is read from
+     * the input as the stream is read. The stream must be read to the end
+     * or closed before the next value is read.
+     */
+    public InputStream readRawAsStream() throws IOException {
+        return new ByteArrayInputStream(readByteArray());
+    }
+
 
     public abstract int readArrayBegin() throws IOException;
 
@@ -96,6 +129,30 @@ public abstract class Unpacker implements Iterable<Value> {
     }
 
 
+    /**
+     * Used by graph templates. Assigns the next id to an object being
+     * read, before its fields are read.
+     */
+    public void putObjectReference(Object o) {
+        if(objectReferences == null) {
+            objectReferences = new ArrayList<Object>();
+        }
+        objectReferences.add(o);
+    }
+
+    public Object getObjectReference(int id) {
+        if(objectReferences == null || id < 0 || objectReferences.size() <= id) {
+            throw new MessageTypeException("Unknown object reference: " + id);
+        }
+        return objectReferences.get(id);
+    }
+
+    public void resetObjectReferences() {
+        if(objectReferences != null) {
+            objectReferences.clear();
+        }
+    }
+
     public <T> T read(T to) throws IOException {
         return (T)msgpack.getTemplate(to.getClass()).read(this, to);
     }
@@ -29,6 +29,32 @@ class IntValueImpl extends IntegerValue {
         this.value = value;
     }
 
+    // the fixnum range
+    private static final int CACHE_MIN = -32;
+    private static final int CACHE_MAX = 127;
+    private static final IntValueImpl[] cache = new IntValueImpl[CACHE_MAX - CACHE_MIN + 1];
+
+    static {
+        for(int i=0; i < cache.length; i++) {
+            cache[i] = new IntValueImpl(i + CACHE_MIN);
+        }
+    }
+
+    static boolean isCached(long value) {
+        return CACHE_MIN <= value && value <= CACHE_MAX;
+    }
+
+    /**
+     * Returns a shared instance for the values in the fixnum range, like
+     * Integer.valueOf() does.
+     */
+    static IntValueImpl getInstance(int value) {
+        if(isCached(value)) {
+            return cache[value - CACHE_MIN];
+        }
+        return new IntValueImpl(value);
+    }
+
     private static int BYTE_MAX = (int)Byte.MAX_VALUE;
     private static int SHORT_MAX = (int)Short.MAX_VALUE;
 
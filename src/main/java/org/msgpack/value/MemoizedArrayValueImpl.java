@@ -0,0 +1,49 @@
+//
+// MessagePack for Java
+//
+// Copyright (C) 2009-2011 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.value;
+
+import java.io.IOException;
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.packer.Packer;
+
+/**
+ * An array that encodes itself once, on the first write, and writes
+ * the same bytes afterwards.
+ */
+class MemoizedArrayValueImpl extends ArrayValueImpl {
+    private volatile byte[] encoded;
+
+    MemoizedArrayValueImpl(Value[] array) {
+        super(array, true);
+    }
+
+    byte[] getEncoded() throws IOException {
+        byte[] b = encoded;
+        if(b == null) {
+            BufferPacker pk = new BufferPacker();
+            super.writeTo(pk);
+            b = encoded = pk.toByteArray();
+        }
+        return b;
+    }
+
+    @Override
+    public void writeTo(Packer pk) throws IOException {
+        pk.writePreEncoded(getEncoded());
+    }
+}
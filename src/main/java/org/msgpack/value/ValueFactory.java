@@ -33,18 +33,21 @@ public final class ValueFactory {
     }
 
     public static IntegerValue integerValue(byte v) {
-        return new IntValueImpl((int)v);
+        return IntValueImpl.getInstance((int)v);
     }
 
     public static IntegerValue integerValue(short v) {
-        return new IntValueImpl((int)v);
+        return IntValueImpl.getInstance((int)v);
     }
 
     public static IntegerValue integerValue(int v) {
-        return new IntValueImpl(v);
+        return IntValueImpl.getInstance(v);
     }
 
     public static IntegerValue integerValue(long v) {
+        if(IntValueImpl.isCached(v)) {
+            return IntValueImpl.getInstance((int)v);
+        }
         return new LongValueImpl(v);
     }
 
@@ -69,14 +72,23 @@ public final class ValueFactory {
     }
 
     public static RawValue rawValue(byte[] b, boolean gift) {
+        if(b.length == 0) {
+            return ByteArrayRawValueImpl.getEmptyInstance();
+        }
         return new ByteArrayRawValueImpl(b, gift);
     }
 
     public static RawValue rawValue(byte[] b, int off, int len) {
+        if(len == 0) {
+            return ByteArrayRawValueImpl.getEmptyInstance();
+        }
         return new ByteArrayRawValueImpl(b, off, len);
     }
 
     public static RawValue rawValue(String s) {
+        if(s.length() == 0) {
+            return ByteArrayRawValueImpl.getEmptyInstance();
+        }
         return new StringRawValueImpl(s);
     }
 
@@ -120,6 +132,33 @@ public final class ValueFactory {
         return new SequentialMapValueImpl(kvs, gift);
     }
 
+    /**
+     * Returns an array or map equal to v that keeps its encoded bytes
+     * after the first write and writes them as they are afterwards. v and
+     * its elements must not be changed. Other values are returned as they
+     * are since they are cheap to encode.
+     */
+    public static Value memoizedValue(Value v) {
+        if(v instanceof MemoizedArrayValueImpl || v instanceof MemoizedMapValueImpl) {
+            return v;
+        }
+        if(v.isArray()) {
+            Value[] array = v.asArrayValue().getElementArray();
+            if(array.length == 0) {
+                return v;
+            }
+            return new MemoizedArrayValueImpl(array);
+        }
+        if(v.isMap()) {
+            Value[] kvs = v.asMapValue().getKeyValueArray();
+            if(kvs.length == 0) {
+                return v;
+            }
+            return new MemoizedMapValueImpl(kvs);
+        }
+        return v;
+    }
+
     //TODO
     //public static Value get(Object obj) {
     //    return new Unconverter().pack(obj).getResult();
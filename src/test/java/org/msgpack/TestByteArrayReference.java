@@ -0,0 +1,75 @@
+package org.msgpack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.packer.StreamPacker;
+import org.msgpack.unpacker.BufferUnpacker;
+import org.junit.Test;
+
+public class TestByteArrayReference {
+    private static byte[] blob(int len) {
+        byte[] b = new byte[len];
+        for(int i=0; i < len; i++) {
+            b[i] = (byte)i;
+        }
+        return b;
+    }
+
+    @Test
+    public void testEnvelope() throws Exception {
+        byte[] payload = blob(100000);
+        BufferPacker pk = new BufferPacker();
+        pk.writeArrayBegin(3);
+        pk.writeString("put");
+        pk.writeByteArrayReference(payload);
+        pk.writeInt(7);
+        pk.writeArrayEnd();
+
+        BufferUnpacker u = new BufferUnpacker().wrap(pk.toByteArray());
+        assertEquals(3, u.readArrayBegin());
+        assertEquals("put", u.readString());
+        assertArrayEquals(payload, u.readByteArray());
+        assertEquals(7, u.readInt());
+        u.readArrayEnd();
+    }
+
+    @Test
+    public void testSameBytesAsCopy() throws Exception {
+        byte[] small = blob(20);
+        byte[] large = blob(70000);
+        BufferPacker copy = new BufferPacker();
+        BufferPacker ref = new BufferPacker();
+        ref.setReferenceThreshold(16);
+        copy.writeByteArray(small);
+        copy.writeByteArray(large, 3, 1000);
+        copy.writeByteArray(large);
+        ref.writeByteArrayReference(small);
+        ref.writeByteArrayReference(large, 3, 1000);
+        ref.writeByteArrayReference(ByteBuffer.wrap(large));
+        assertArrayEquals(copy.toByteArray(), ref.toByteArray());
+    }
+
+    @Test
+    public void testDirectBuffer() throws Exception {
+        byte[] payload = blob(3000);
+        ByteBuffer direct = ByteBuffer.allocateDirect(payload.length);
+        direct.put(payload);
+        direct.flip();
+
+        BufferPacker pk = new BufferPacker();
+        pk.writeByteArrayReference(direct);
+        assertEquals(0, direct.position());
+        assertArrayEquals(payload, new BufferUnpacker().wrap(pk.toByteArray()).readByteArray());
+
+        // packers without a linked buffer copy the bytes
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        new StreamPacker(bo).writeByteArrayReference(direct);
+        assertArrayEquals(pk.toByteArray(), bo.toByteArray());
+    }
+}
@@ -0,0 +1,98 @@
+package org.msgpack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.msgpack.packer.CompressedPacker;
+import org.msgpack.unpacker.CompressedUnpacker;
+
+import org.junit.Test;
+
+public class TestCompressedPackUnpack {
+    private byte[] pack(int blockSize, int n, byte[] blob) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompressedPacker pk = new CompressedPacker(out, blockSize);
+        for(int i=0; i < n; i++) {
+            pk.writeArrayBegin(4);
+            pk.writeInt(i);
+            pk.writeLong(i * 1000000007L);
+            pk.writeString("event-" + (i % 10));
+            pk.writeByteArray(blob);
+            pk.writeArrayEnd();
+        }
+        pk.close();
+        return out.toByteArray();
+    }
+
+    private void unpack(CompressedUnpacker u, int n, byte[] blob) throws IOException {
+        for(int i=0; i < n; i++) {
+            assertEquals(4, u.readArrayBegin());
+            assertEquals(i, u.readInt());
+            assertEquals(i * 1000000007L, u.readLong());
+            assertEquals("event-" + (i % 10), u.readString());
+            assertArrayEquals(blob, u.readByteArray());
+            u.readArrayEnd();
+        }
+        try {
+            u.readInt();
+            fail();
+        } catch (EOFException e) {
+        }
+    }
+
+    @Test
+    public void testPackUnpack() throws IOException {
+        byte[] blob = new byte[100];
+        byte[] bytes = pack(256, 1000, blob);
+        unpack(new CompressedUnpacker(new ByteArrayInputStream(bytes)), 1000, blob);
+    }
+
+    @Test
+    public void testIncompressibleBlocks() throws IOException {
+        byte[] blob = new byte[300];
+        new Random(0).nextBytes(blob);
+        byte[] bytes = pack(128, 100, blob);
+        assertTrue(bytes.length > 100 * blob.length);
+        unpack(new CompressedUnpacker(new ByteArrayInputStream(bytes)), 100, blob);
+    }
+
+    @Test
+    public void testParallelReadAhead() throws IOException {
+        byte[] blob = new byte[50];
+        byte[] bytes = pack(64, 2000, blob);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CompressedUnpacker u = new CompressedUnpacker(new ByteArrayInputStream(bytes), executor, 8);
+            unpack(u, 2000, blob);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testChecksumMismatch() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompressedPacker pk = new CompressedPacker(out);
+        pk.writeInt(1);
+        pk.close();
+        byte[] bytes = out.toByteArray();
+        bytes[8] ^= 1;
+        CompressedUnpacker u = new CompressedUnpacker(new ByteArrayInputStream(bytes));
+        try {
+            u.readInt();
+            fail();
+        } catch (IOException e) {
+            assertEquals("Block checksum mismatch", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.msgpack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.unpacker.BufferUnpacker;
+import org.msgpack.unpacker.StreamUnpacker;
+import org.msgpack.value.Value;
+
+import org.junit.Test;
+
+public class TestDictionaryPackUnpack {
+    private byte[] packRecords(boolean dictionary) throws IOException {
+        BufferPacker pk = new BufferPacker();
+        if(dictionary) {
+            pk.enableDictionary();
+        }
+        for(int i=0; i < 100; i++) {
+            pk.writeMapBegin(3);
+            pk.writeString("host");
+            pk.writeString("web-" + (i % 3));
+            pk.writeString("bytes");
+            pk.writeByteArray(new byte[] { (byte)i, (byte)i });
+            pk.writeString("status");
+            pk.writeInt(200);
+            pk.writeMapEnd();
+        }
+        return pk.toByteArray();
+    }
+
+    @Test
+    public void testReadString() throws IOException {
+        byte[] plain = packRecords(false);
+        byte[] bytes = packRecords(true);
+        assertTrue(bytes.length < plain.length);
+
+        BufferUnpacker u = new BufferUnpacker().wrap(bytes);
+        u.enableDictionary();
+        String host = null;
+        for(int i=0; i < 100; i++) {
+            assertEquals(3, u.readMapBegin());
+            String key = u.readString();
+            assertEquals("host", key);
+            if(host != null) {
+                assertTrue(host == key);
+            }
+            host = key;
+            assertEquals("web-" + (i % 3), u.readString());
+            assertEquals("bytes", u.readString());
+            assertArrayEquals(new byte[] { (byte)i, (byte)i }, u.readByteArray());
+            assertEquals("status", u.readString());
+            assertEquals(200, u.readInt());
+            u.readMapEnd();
+        }
+    }
+
+    @Test
+    public void testReadValue() throws IOException {
+        byte[] plain = packRecords(false);
+        byte[] bytes = packRecords(true);
+
+        BufferUnpacker u1 = new BufferUnpacker().wrap(plain);
+        StreamUnpacker u2 = new StreamUnpacker(new ByteArrayInputStream(bytes));
+        u2.enableDictionary();
+        for(int i=0; i < 100; i++) {
+            Value v1 = u1.readValue();
+            Value v2 = u2.readValue();
+            assertEquals(v1, v2);
+        }
+    }
+
+    @Test
+    public void testManyEntries() throws IOException {
+        BufferPacker pk = new BufferPacker();
+        pk.enableDictionary();
+        for(int j=0; j < 2; j++) {
+            for(int i=0; i < 1000; i++) {
+                pk.writeString("key" + i);
+            }
+        }
+        BufferUnpacker u = new BufferUnpacker().wrap(pk.toByteArray());
+        u.enableDictionary();
+        for(int j=0; j < 2; j++) {
+            for(int i=0; i < 1000; i++) {
+                assertEquals("key" + i, u.readString());
+            }
+        }
+    }
+
+    @Test
+    public void testDisabledUnpacker() throws IOException {
+        byte[] bytes = packRecords(true);
+        BufferUnpacker u = new BufferUnpacker().wrap(bytes);
+        u.readValue();
+        try {
+            u.readValue();
+            fail();
+        } catch (MessageTypeException e) {
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.msgpack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.packer.Unconverter;
+import org.msgpack.unpacker.BufferUnpacker;
+import org.msgpack.value.Value;
+import org.junit.Test;
+
+public class TestPreEncoded {
+    private static byte[] fragment() throws Exception {
+        BufferPacker pk = new BufferPacker();
+        pk.writeMapBegin(2);
+        pk.writeString("name");
+        pk.writeString("cached");
+        pk.writeString("tags");
+        pk.writeArrayBegin(3);
+        pk.writeInt(-1);
+        pk.writeLong(1L << 40);
+        pk.writeDouble(0.5);
+        pk.writeArrayEnd();
+        pk.writeMapEnd();
+        return pk.toByteArray();
+    }
+
+    @Test
+    public void testSplice() throws Exception {
+        byte[] f = fragment();
+        byte[] padded = new byte[f.length + 4];
+        System.arraycopy(f, 0, padded, 2, f.length);
+
+        BufferPacker pk = new BufferPacker();
+        pk.writeArrayBegin(3);
+        pk.writePreEncoded(f);
+        pk.writePreEncoded(padded, 2, f.length, true);
+        pk.writeInt(5);
+        pk.writeArrayEnd();
+
+        MessagePack msgpack = new MessagePack();
+        Value v = msgpack.read(pk.toByteArray());
+        Value expected = msgpack.read(f);
+        assertEquals(expected, v.asArrayValue().get(0));
+        assertEquals(expected, v.asArrayValue().get(1));
+        assertEquals(5, v.asArrayValue().get(2).asIntegerValue().getInt());
+    }
+
+    @Test
+    public void testValidation() throws Exception {
+        byte[] f = fragment();
+        BufferPacker pk = new BufferPacker();
+        try {
+            pk.writePreEncoded(f, 0, f.length - 1, true);
+            fail();
+        } catch (MessageTypeException e) {
+        }
+        byte[] twice = new byte[f.length * 2];
+        System.arraycopy(f, 0, twice, 0, f.length);
+        System.arraycopy(f, 0, twice, f.length, f.length);
+        try {
+            pk.writePreEncoded(twice, 0, twice.length, true);
+            fail();
+        } catch (MessageTypeException e) {
+        }
+        try {
+            pk.writePreEncoded(new byte[] { (byte)0xc1 }, 0, 1, true);
+            fail();
+        } catch (MessageTypeException e) {
+        }
+        assertEquals(0, pk.toByteArray().length);
+    }
+
+    @Test
+    public void testDictionary() throws Exception {
+        byte[] f = fragment();
+        BufferPacker pk = new BufferPacker();
+        pk.enableDictionary();
+        pk.writeArrayBegin(3);
+        pk.writePreEncoded(f);
+        // refers to the strings in the fragment
+        pk.writeString("cached");
+        pk.writeString("tags");
+        pk.writeArrayEnd();
+        byte[] bytes = pk.toByteArray();
+
+        BufferUnpacker u = new BufferUnpacker();
+        u.enableDictionary();
+        u.wrap(bytes);
+        assertEquals(3, u.readArrayBegin());
+        u.skip();
+        assertEquals("cached", u.readString());
+        assertEquals("tags", u.readString());
+        u.readArrayEnd();
+    }
+
+    @Test
+    public void testUnconverter() throws Exception {
+        byte[] f = fragment();
+        Unconverter uc = new Unconverter();
+        uc.writePreEncoded(f, 0, f.length, true);
+        assertEquals(new MessagePack().read(f), uc.getResult());
+    }
+}
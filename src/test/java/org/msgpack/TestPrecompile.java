@@ -0,0 +1,62 @@
+package org.msgpack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.msgpack.precompile.PrecompiledMessage;
+import org.msgpack.precompile.sub.PrecompiledSubMessage;
+import org.msgpack.template.Template;
+
+import org.junit.Test;
+
+public class TestPrecompile {
+    @Test
+    public void testPrecompile() throws IOException, InterruptedException {
+        MessagePack msgpack = new MessagePack();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Map<Class<?>, Long> times = msgpack.precompile(executor, "org.msgpack.precompile");
+            assertEquals(2, times.size());
+            assertTrue(times.containsKey(PrecompiledMessage.class));
+            assertTrue(times.containsKey(PrecompiledSubMessage.class));
+
+            Template tmpl = msgpack.getTemplate(PrecompiledMessage.class);
+            assertTrue(tmpl == msgpack.getTemplate(PrecompiledMessage.class));
+
+            // already registered
+            times = msgpack.precompile(executor, "org.msgpack.precompile");
+            assertEquals(0, times.size());
+        } finally {
+            executor.shutdown();
+        }
+
+        PrecompiledMessage m = new PrecompiledMessage();
+        m.value = 3;
+        assertEquals(3, msgpack.read(msgpack.write(m), PrecompiledMessage.class).value);
+    }
+
+    @Test
+    public void testPrecompileSameClassConcurrently() throws InterruptedException {
+        TemplateRegistry registry = new TemplateRegistry(null);
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        for (int i = 0; i < 16; i++) {
+            classes.add(PrecompiledMessage.class);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Map<Class<?>, Long> times = registry.precompile(classes, executor);
+            assertEquals(1, times.size());
+        } finally {
+            executor.shutdown();
+        }
+        Template tmpl = registry.lookup(PrecompiledMessage.class);
+        assertTrue(tmpl == registry.lookup(PrecompiledMessage.class));
+    }
+}
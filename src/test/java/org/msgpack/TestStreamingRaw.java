@@ -0,0 +1,148 @@
+package org.msgpack;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.packer.StreamPacker;
+import org.msgpack.packer.Unconverter;
+import org.msgpack.unpacker.BufferUnpacker;
+import org.msgpack.unpacker.Converter;
+import org.msgpack.unpacker.StreamUnpacker;
+import org.msgpack.unpacker.Unpacker;
+import org.junit.Test;
+
+public class TestStreamingRaw {
+    private static byte[] blob(int len) {
+        byte[] b = new byte[len];
+        for(int i=0; i < len; i++) {
+            b[i] = (byte)(i * 7);
+        }
+        return b;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        byte[] chunk = new byte[1000];
+        int n;
+        while((n = in.read(chunk)) >= 0) {
+            bo.write(chunk, 0, n);
+        }
+        return bo.toByteArray();
+    }
+
+    @Test
+    public void testWriteFromStream() throws Exception {
+        byte[] payload = blob(100000);
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        StreamPacker pk = new StreamPacker(bo);
+        pk.writeArrayBegin(2);
+        pk.writeByteArray(new ByteArrayInputStream(payload), payload.length);
+        pk.writeInt(1);
+        pk.writeArrayEnd();
+
+        BufferPacker expected = new BufferPacker();
+        expected.writeArrayBegin(2);
+        expected.writeByteArray(payload);
+        expected.writeInt(1);
+        expected.writeArrayEnd();
+        assertArrayEquals(expected.toByteArray(), bo.toByteArray());
+    }
+
+    @Test
+    public void testWriteRawBody() throws Exception {
+        byte[] payload = blob(40);
+        BufferPacker pk = new BufferPacker();
+        pk.writeRawHeader(payload.length);
+        pk.writeRawBody(payload, 0, 10);
+        pk.writeRawBody(payload, 10, 30);
+        pk.writeRawHeader(0);
+        assertArrayEquals(payload, new BufferUnpacker().wrap(pk.toByteArray()).readByteArray());
+
+        Unconverter uc = new Unconverter();
+        uc.writeRawHeader(payload.length);
+        uc.writeRawBody(payload, 0, 20);
+        uc.writeRawBody(payload, 20, 20);
+        assertArrayEquals(payload, uc.getResult().asRawValue().getByteArray());
+    }
+
+    @Test
+    public void testWriteRawBodyTooLong() throws Exception {
+        BufferPacker pk = new BufferPacker();
+        pk.writeRawHeader(3);
+        try {
+            pk.writeRawBody(new byte[4], 0, 4);
+            fail();
+        } catch (MessageTypeException e) {
+        }
+    }
+
+    private static void testReadAsStream(Unpacker u, byte[] payload) throws Exception {
+        assertEquals(3, u.readArrayBegin());
+        assertArrayEquals(payload, readFully(u.readRawAsStream()));
+        // closing skips the rest of the body
+        InputStream in = u.readRawAsStream();
+        assertEquals(payload[0] & 0xff, in.read());
+        in.close();
+        assertEquals(7, u.readInt());
+        u.readArrayEnd();
+    }
+
+    @Test
+    public void testReadAsStream() throws Exception {
+        byte[] payload = blob(300000);
+        BufferPacker pk = new BufferPacker();
+        pk.writeArrayBegin(3);
+        pk.writeByteArray(payload);
+        pk.writeByteArray(payload);
+        pk.writeInt(7);
+        pk.writeArrayEnd();
+        byte[] bytes = pk.toByteArray();
+
+        testReadAsStream(new StreamUnpacker(new ByteArrayInputStream(bytes)), payload);
+        testReadAsStream(new BufferUnpacker().wrap(bytes), payload);
+        testReadAsStream(new Converter(new MessagePack().read(bytes)), payload);
+    }
+
+    @Test
+    public void testReadShortRawAsStream() throws Exception {
+        BufferPacker pk = new BufferPacker();
+        pk.writeString("abc");
+        pk.writeByteArray(new byte[0]);
+        StreamUnpacker u = new StreamUnpacker(new ByteArrayInputStream(pk.toByteArray()));
+        assertArrayEquals("abc".getBytes("UTF-8"), readFully(u.readRawAsStream()));
+        assertEquals(-1, u.readRawAsStream().read());
+    }
+
+    private static void testReadRawInto(Unpacker u) throws Exception {
+        byte[] buffer = new byte[4];
+        assertEquals(3, u.readArrayBegin());
+        assertEquals(3, u.readRawInto(buffer));
+        assertEquals("abc", new String(buffer, 0, 3, "UTF-8"));
+        // too long for the buffer: skipped
+        assertEquals(-1, u.readRawInto(buffer));
+        assertEquals(7, u.readInt());
+        u.readArrayEnd();
+    }
+
+    @Test
+    public void testReadRawInto() throws Exception {
+        BufferPacker pk = new BufferPacker();
+        pk.writeArrayBegin(3);
+        pk.writeString("abc");
+        pk.writeByteArray(blob(1000));
+        pk.writeInt(7);
+        pk.writeArrayEnd();
+        byte[] bytes = pk.toByteArray();
+
+        testReadRawInto(new StreamUnpacker(new ByteArrayInputStream(bytes)));
+        testReadRawInto(new BufferUnpacker().wrap(bytes));
+        testReadRawInto(new Converter(new MessagePack().read(bytes)));
+    }
+}
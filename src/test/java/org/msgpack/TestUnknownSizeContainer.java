@@ -0,0 +1,135 @@
+package org.msgpack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.packer.ByteArrayPacker;
+import org.msgpack.packer.ByteBufferPacker;
+import org.msgpack.packer.Packer;
+import org.msgpack.packer.StreamPacker;
+import org.msgpack.unpacker.BufferUnpacker;
+import org.junit.Test;
+
+public class TestUnknownSizeContainer {
+    private static void writeQuery(Packer pk, int rows) throws Exception {
+        pk.writeMapBegin();
+        pk.writeString("rows");
+        pk.writeArrayBegin();
+        for(int i=0; i < rows; i++) {
+            pk.writeArrayBegin(2);
+            pk.writeInt(i);
+            pk.writeString("row" + i);
+            pk.writeArrayEnd();
+        }
+        pk.writeArrayEnd();
+        pk.writeString("done");
+        pk.writeBoolean(true);
+        pk.writeMapEnd();
+    }
+
+    private static void readQuery(BufferUnpacker u, int rows) throws Exception {
+        assertEquals(2, u.readMapBegin());
+        assertEquals("rows", u.readString());
+        assertEquals(rows, u.readArrayBegin());
+        for(int i=0; i < rows; i++) {
+            assertEquals(2, u.readArrayBegin());
+            assertEquals(i, u.readInt());
+            assertEquals("row" + i, u.readString());
+            u.readArrayEnd();
+        }
+        u.readArrayEnd();
+        assertEquals("done", u.readString());
+        assertEquals(true, u.readBoolean());
+        u.readMapEnd();
+    }
+
+    @Test
+    public void testBufferPacker() throws Exception {
+        for(int rows : new int[] { 0, 3, 20, 1000 }) {
+            // a small buffer makes the header end up in an earlier segment
+            BufferPacker pk = new BufferPacker(16);
+            writeQuery(pk, rows);
+            readQuery(new BufferUnpacker().wrap(pk.toByteArray()), rows);
+        }
+    }
+
+    @Test
+    public void testByteArrayPacker() throws Exception {
+        byte[] b = new byte[4096];
+        ByteArrayPacker pk = new ByteArrayPacker(b, 7, b.length - 7);
+        writeQuery(pk, 50);
+        readQuery(new BufferUnpacker().wrap(b, 7, pk.getSize()), 50);
+    }
+
+    @Test
+    public void testByteBufferPacker() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocateDirect(4096);
+        buf.position(11);
+        ByteBufferPacker pk = new ByteBufferPacker(buf);
+        writeQuery(pk, 50);
+        buf.flip();
+        buf.position(11);
+        readQuery(new BufferUnpacker().wrap(buf), 50);
+    }
+
+    @Test
+    public void testIterator() throws Exception {
+        Iterator<Integer> it = Arrays.asList(1, 2, 3).iterator();
+        BufferPacker pk = new BufferPacker();
+        pk.writeArrayBegin();
+        while(it.hasNext()) {
+            pk.writeInt(it.next());
+        }
+        pk.writeArrayEnd();
+        assertEquals("[1,2,3]", new MessagePack().read(pk.toByteArray()).toString());
+    }
+
+    @Test
+    public void testMapWithoutValue() throws Exception {
+        BufferPacker pk = new BufferPacker();
+        pk.writeMapBegin();
+        pk.writeString("key");
+        try {
+            pk.writeMapEnd();
+            fail();
+        } catch (MessageTypeException e) {
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testStreamPacker() throws Exception {
+        new StreamPacker(new ByteArrayOutputStream()).writeArrayBegin();
+    }
+
+    @Test
+    public void testBigInteger() throws Exception {
+        BigInteger small = BigInteger.valueOf(-3);
+        BigInteger large = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        BufferPacker pk = new BufferPacker();
+        pk.writeArrayBegin();
+        pk.writeBigInteger(small);
+        pk.writeBigInteger(large);
+        pk.writeArrayEnd();
+        pk.writeMapBegin();
+        pk.writeBigInteger(small);
+        pk.writeBigInteger(large);
+        pk.writeMapEnd();
+
+        BufferUnpacker u = new BufferUnpacker().wrap(pk.toByteArray());
+        assertEquals(2, u.readArrayBegin());
+        assertEquals(small, u.readBigInteger());
+        assertEquals(large, u.readBigInteger());
+        u.readArrayEnd();
+        assertEquals(1, u.readMapBegin());
+        assertEquals(small, u.readBigInteger());
+        assertEquals(large, u.readBigInteger());
+        u.readMapEnd();
+    }
+}
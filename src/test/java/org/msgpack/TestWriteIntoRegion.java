@@ -0,0 +1,144 @@
+package org.msgpack;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.msgpack.annotation.Message;
+import org.msgpack.io.BufferFullException;
+import org.msgpack.packer.ByteArrayPacker;
+import org.msgpack.packer.ByteBufferPacker;
+import org.msgpack.packer.Packer;
+import org.msgpack.template.Template;
+import org.msgpack.unpacker.Unpacker;
+
+import org.junit.Test;
+
+public class TestWriteIntoRegion {
+    @Message
+    public static class Quote {
+        public String symbol;
+        public long price;
+        public double size;
+        public short venue;
+
+        public Quote() { }
+    }
+
+    private Quote quote() {
+        Quote q = new Quote();
+        q.symbol = "ABC";
+        q.price = 123456789012L;
+        q.size = 1.25;
+        q.venue = 300;
+        return q;
+    }
+
+    @Test
+    public void testByteArray() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        byte[] expected = msgpack.write(quote());
+
+        byte[] dst = new byte[64];
+        int len = msgpack.write(quote(), dst, 10);
+        assertEquals(expected.length, len);
+        assertArrayEquals(expected, Arrays.copyOfRange(dst, 10, 10 + len));
+        assertEquals(0, dst[9]);
+
+        assertEquals(-1, msgpack.write(quote(), dst, dst.length - expected.length + 1));
+        assertEquals(expected.length, msgpack.write(quote(), dst, dst.length - expected.length));
+    }
+
+    @Test
+    public void testByteBuffer() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        byte[] expected = msgpack.write(quote());
+
+        ByteBuffer dst = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        dst.position(5);
+        int len = msgpack.write(quote(), dst);
+        assertEquals(expected.length, len);
+        assertEquals(5 + len, dst.position());
+        byte[] written = new byte[len];
+        dst.position(5);
+        dst.get(written);
+        assertArrayEquals(expected, written);
+
+        dst.limit(dst.position() + expected.length - 1);
+        int pos = dst.position();
+        assertEquals(-1, msgpack.write(quote(), dst));
+        assertEquals(pos, dst.position());
+    }
+
+    @Test
+    public void testByteArrayPackerReset() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        byte[] expected = msgpack.write(quote());
+
+        ByteArrayPacker pk = new ByteArrayPacker(msgpack, new byte[4], 0, 4);
+        try {
+            pk.write(quote());
+            fail();
+        } catch (BufferFullException e) {
+        }
+
+        byte[] dst = new byte[64];
+        pk.reset(dst, 3, dst.length - 3);
+        pk.write(quote());
+        assertEquals(expected.length, pk.getSize());
+        assertArrayEquals(expected, Arrays.copyOfRange(dst, 3, 3 + expected.length));
+    }
+
+    @Test
+    public void testByteBufferPackerReset() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        byte[] expected = msgpack.write(quote());
+
+        ByteBufferPacker pk = new ByteBufferPacker(msgpack, ByteBuffer.allocate(4));
+        try {
+            pk.write(quote());
+            fail();
+        } catch (BufferFullException e) {
+        }
+
+        ByteBuffer dst = ByteBuffer.allocate(64);
+        dst.position(2);
+        pk.reset(dst);
+        pk.write(quote());
+        assertEquals(2 + expected.length, dst.position());
+        byte[] written = new byte[expected.length];
+        dst.position(2);
+        dst.get(written);
+        assertArrayEquals(expected, written);
+    }
+
+    @Test
+    public void testCallerTemplates() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        msgpack.register(Quote.class, new Template() {
+            public void write(Packer pk, Object v) throws IOException {
+                pk.writeInt(42);
+            }
+
+            public Object read(Unpacker u, Object to) throws IOException {
+                throw new UnsupportedOperationException();
+            }
+        });
+
+        byte[] dst = new byte[8];
+        ByteArrayPacker pk = new ByteArrayPacker(msgpack, dst, 0, dst.length);
+        pk.write(quote());
+        assertEquals(1, pk.getSize());
+        assertEquals(42, dst[0]);
+
+        // the cached packer of the region writes is reused
+        assertEquals(1, msgpack.write(quote(), dst, 1));
+        assertEquals(1, msgpack.write(quote(), dst, 2));
+        assertEquals(42, dst[2]);
+    }
+}
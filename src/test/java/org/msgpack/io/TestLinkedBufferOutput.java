@@ -2,12 +2,20 @@ package org.msgpack.io;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.io.IOException;
 import java.io.DataOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.Pipe;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -99,5 +107,169 @@ public class TestLinkedBufferOutput {
         assertEquals(b1.length, b2.length);
         assertArrayEquals(b1, b2);
     }
-}
 
+    @Test
+    public void testWriteWithLinkedIntAfterRaw() throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        DataOutputStream o1 = new DataOutputStream(bo);
+        LinkedBufferOutput o2 = new LinkedBufferOutput(10);
+        byte[] raw = new byte[9];
+        for(int i=0; i < 3; i++) {
+            o1.write(raw, 0, raw.length);
+            o2.write(raw, 0, raw.length);
+            o1.writeInt(i);
+            o2.writeInt(i);
+        }
+        assertArrayEquals(bo.toByteArray(), o2.toByteArray());
+    }
+
+    private static LinkedBufferOutput fill(LinkedBufferOutput o) throws IOException {
+        byte[] large = new byte[25];
+        large[24] = (byte)7;
+        for(int i=0; i < 13; i++) {
+            o.writeInt(i);
+        }
+        o.write(large, 0, large.length);
+        o.writeLong(3L);
+        return o;
+    }
+
+    @Test
+    public void testToByteBuffers() throws IOException {
+        LinkedBufferOutput o = fill(new LinkedBufferOutput(10));
+        ByteBuffer[] bufs = o.toByteBuffers();
+        ByteBuffer all = ByteBuffer.allocate(o.getSize());
+        for(ByteBuffer b : bufs) {
+            all.put(b);
+        }
+        assertArrayEquals(o.toByteArray(), all.array());
+    }
+
+    @Test
+    public void testWriteToStream() throws IOException {
+        LinkedBufferOutput o = fill(new LinkedBufferOutput(10));
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        o.writeTo(bo);
+        assertArrayEquals(o.toByteArray(), bo.toByteArray());
+    }
+
+    @Test
+    public void testWriteToChannel() throws IOException {
+        LinkedBufferOutput o = fill(new LinkedBufferOutput(10));
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        long n = o.writeTo(new GatheringAdapter(Channels.newChannel(bo)));
+        assertEquals(o.getSize(), n);
+        assertArrayEquals(o.toByteArray(), bo.toByteArray());
+    }
+
+    @Test
+    public void testReset() throws IOException {
+        LinkedBufferOutput o = fill(new LinkedBufferOutput(10));
+        byte[] expected = o.toByteArray();
+        ByteBuffer[] first = o.toByteBuffers();
+        o.reset();
+        assertEquals(0, o.getSize());
+        assertEquals(0, o.toByteArray().length);
+        fill(o);
+        assertArrayEquals(expected, o.toByteArray());
+        // the segments of the first round are written again
+        ByteBuffer[] second = o.toByteBuffers();
+        assertSame(first[0].array(), second[1].array());
+    }
+
+    @Test
+    public void testWriteReference() throws IOException {
+        LinkedBufferOutput o = new LinkedBufferOutput(10);
+        o.setReferenceThreshold(4);
+        byte[] small = new byte[] { 1, 2, 3 };
+        byte[] large = new byte[] { 4, 5, 6, 7, 8 };
+        o.writeByte((byte)9);
+        o.writeReference(small, 0, small.length);
+        o.writeReference(large, 1, 4);
+        o.writeByte((byte)10);
+        assertArrayEquals(new byte[] { 9, 1, 2, 3, 5, 6, 7, 8, 10 }, o.toByteArray());
+        ByteBuffer[] bufs = o.toByteBuffers();
+        assertEquals(3, bufs.length);
+        assertSame(large, bufs[1].array());
+        // the referenced bytes are not copied
+        large[1] = (byte)0;
+        assertEquals(0, o.toByteArray()[4]);
+    }
+
+    @Test
+    public void testWriteDirectReference() throws IOException {
+        LinkedBufferOutput o = new LinkedBufferOutput(10);
+        ByteBuffer direct = ByteBuffer.allocateDirect(40);
+        for(int i=0; i < 40; i++) {
+            direct.put((byte)i);
+        }
+        direct.position(5);
+        o.writeInt(1);
+        o.writeReference(direct);
+        o.writeInt(2);
+        assertEquals(5, direct.position());
+        ByteBuffer expected = ByteBuffer.allocate(43);
+        expected.putInt(1);
+        for(int i=5; i < 40; i++) {
+            expected.put((byte)i);
+        }
+        expected.putInt(2);
+        assertArrayEquals(expected.array(), o.toByteArray());
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        o.writeTo(bo);
+        assertArrayEquals(expected.array(), bo.toByteArray());
+        assertTrue(o.toByteBuffers()[1].isDirect());
+    }
+
+    @Test
+    public void testWriteToNonBlockingChannel() throws IOException {
+        LinkedBufferOutput out = new LinkedBufferOutput(16);
+        out.write(new byte[40], 0, 40);
+        Pipe pipe = Pipe.open();
+        try {
+            pipe.sink().configureBlocking(false);
+            try {
+                out.writeTo(pipe.sink());
+                fail();
+            } catch (IllegalBlockingModeException e) {
+            }
+        } finally {
+            pipe.sink().close();
+            pipe.source().close();
+        }
+    }
+
+    private static class GatheringAdapter implements GatheringByteChannel {
+        private final WritableByteChannel ch;
+
+        GatheringAdapter(WritableByteChannel ch) {
+            this.ch = ch;
+        }
+
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            // writes one buffer per call to exercise the loop
+            for(int i=offset; i < offset+length; i++) {
+                if(srcs[i].hasRemaining()) {
+                    return ch.write(srcs[i]);
+                }
+            }
+            return 0;
+        }
+
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+
+        public int write(ByteBuffer src) throws IOException {
+            return ch.write(src);
+        }
+
+        public boolean isOpen() {
+            return ch.isOpen();
+        }
+
+        public void close() throws IOException {
+            ch.close();
+        }
+    }
+}
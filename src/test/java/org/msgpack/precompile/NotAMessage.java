@@ -0,0 +1,5 @@
+package org.msgpack.precompile;
+
+public class NotAMessage {
+    public int value;
+}
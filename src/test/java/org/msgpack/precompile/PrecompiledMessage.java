@@ -0,0 +1,10 @@
+package org.msgpack.precompile;
+
+import org.msgpack.annotation.Message;
+
+@Message
+public class PrecompiledMessage {
+    public int value;
+
+    public PrecompiledMessage() { }
+}
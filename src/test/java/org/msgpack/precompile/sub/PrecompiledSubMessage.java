@@ -0,0 +1,10 @@
+package org.msgpack.precompile.sub;
+
+import org.msgpack.annotation.MessagePackMessage;
+
+@MessagePackMessage
+public class PrecompiledSubMessage {
+    public String name;
+
+    public PrecompiledSubMessage() { }
+}
@@ -1,6 +1,8 @@
 package org.msgpack.template;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -42,6 +44,56 @@ public class TestByteBufferTemplate {
 	new TestBufferPackStreamUnpack().testByteBuffer();
     }
 
+    @Test
+    public void testWritePositionAndLimit() throws Exception {
+	byte[] b = new byte[] { 1, 2, 3, 4, 5, 6 };
+	ByteBuffer heap = ByteBuffer.wrap(b, 1, 4).slice();
+	heap.position(1);
+	ByteBuffer direct = ByteBuffer.allocateDirect(6);
+	direct.put(b);
+	direct.position(2);
+	direct.limit(5);
+	BufferPacker packer = new BufferPacker();
+	ByteBufferTemplate.instance.write(packer, heap);
+	ByteBufferTemplate.instance.write(packer, direct);
+	assertEquals(1, heap.position());
+	assertEquals(2, direct.position());
+	BufferUnpacker unpacker = new BufferUnpacker();
+	unpacker.wrap(packer.toByteArray());
+	assertArrayEquals(new byte[] { 3, 4, 5 }, unpacker.readByteArray());
+	assertArrayEquals(new byte[] { 3, 4, 5 }, unpacker.readByteArray());
+    }
+
+    @Test
+    public void testReadSlice() throws Exception {
+	BufferPacker packer = new BufferPacker();
+	packer.writeByteArray(new byte[] { 1, 2, 3 });
+	packer.writeByteArray(new byte[300]);
+	packer.writeInt(7);
+	byte[] bytes = packer.toByteArray();
+	BufferUnpacker unpacker = new BufferUnpacker();
+	unpacker.enableByteBufferSlices();
+	unpacker.wrap(bytes);
+	ByteBuffer first = (ByteBuffer) ByteBufferTemplate.instance.read(unpacker, null);
+	ByteBuffer second = (ByteBuffer) ByteBufferTemplate.instance.read(unpacker, null);
+	assertEquals(7, unpacker.readInt());
+	assertTrue(first.isReadOnly());
+	assertEquals(3, first.remaining());
+	assertEquals(2, first.get(1));
+	assertEquals(300, second.remaining());
+	// the slices share the input
+	bytes[2] = 9;
+	assertEquals(9, first.get(1));
+
+	// copied when the input is a stream
+	StreamUnpacker stream = new StreamUnpacker(new ByteArrayInputStream(bytes));
+	stream.enableByteBufferSlices();
+	first = stream.readByteBuffer();
+	assertEquals(9, first.get(1));
+	bytes[2] = 2;
+	assertEquals(9, first.get(1));
+    }
+
     private static class TestStreamPackStreamUnpack extends TestSet {
 	@Test @Override
 	public void testByteBuffer() throws Exception {
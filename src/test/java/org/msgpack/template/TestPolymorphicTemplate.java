@@ -0,0 +1,146 @@
+package org.msgpack.template;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.msgpack.MessagePack;
+import org.msgpack.MessageTypeException;
+import org.msgpack.annotation.Message;
+import org.msgpack.unpacker.BufferUnpacker;
+
+import org.junit.Test;
+
+public class TestPolymorphicTemplate {
+    public static interface Event {
+    }
+
+    @Message
+    public static class Click implements Event {
+        public int x;
+        public int y;
+
+        public Click() { }
+    }
+
+    @Message
+    public static class Key implements Event {
+        public String key;
+
+        public Key() { }
+    }
+
+    @Message
+    public static class Batch implements Event {
+        public List<Event> events;
+
+        public Batch() { }
+    }
+
+    public static class Other implements Event {
+    }
+
+    @Test
+    public void testDispatch() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        msgpack.registerPolymorphic(Event.class, Click.class, Key.class, Batch.class);
+        Template tmpl = msgpack.getTemplate(Event.class);
+
+        Click c = new Click();
+        c.x = 1;
+        c.y = 2;
+        Key k = new Key();
+        k.key = "enter";
+        Batch b = new Batch();
+        b.events = new ArrayList<Event>();
+        b.events.add(c);
+        b.events.add(k);
+
+        Batch r = (Batch) tmpl.read(new BufferUnpacker().wrap(msgpack.write(b, tmpl)), null);
+        assertEquals(2, r.events.size());
+        assertTrue(r.events.get(0) instanceof Click);
+        assertEquals(2, ((Click) r.events.get(0)).y);
+        assertEquals("enter", ((Key) r.events.get(1)).key);
+
+        byte[] bytes = msgpack.write(k, tmpl);
+        assertEquals(0x92, bytes[0] & 0xff);
+        assertEquals(1, bytes[1]);
+    }
+
+    @Test
+    public void testUnregisteredSubtype() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        msgpack.registerPolymorphic(Event.class, Click.class);
+        try {
+            msgpack.write(new Other(), msgpack.getTemplate(Event.class));
+            fail();
+        } catch (MessageTypeException e) {
+        }
+    }
+
+    @Test
+    public void testNotSubtype() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        try {
+            msgpack.registerPolymorphic(Event.class, String.class);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public static abstract class AbstractEvent implements Event {
+    }
+
+    @Test
+    public void testAbstractSubtype() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        try {
+            msgpack.registerPolymorphic(Event.class, Click.class, AbstractEvent.class);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            msgpack.registerPolymorphic(Event.class, Event.class);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Message
+    public static class Shape {
+        public int id;
+
+        public Shape() { }
+    }
+
+    @Message
+    public static class Circle extends Shape {
+        public double radius;
+
+        public Circle() { }
+    }
+
+    @Test
+    public void testBaseClassAsSubtype() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        msgpack.registerPolymorphic(Shape.class, Shape.class, Circle.class);
+        Template tmpl = msgpack.getTemplate(Shape.class);
+
+        Shape s = new Shape();
+        s.id = 1;
+        Shape r = (Shape) tmpl.read(new BufferUnpacker().wrap(msgpack.write(s, tmpl)), null);
+        assertEquals(Shape.class, r.getClass());
+        assertEquals(1, r.id);
+
+        Circle c = new Circle();
+        c.id = 2;
+        c.radius = 0.5;
+        r = (Shape) tmpl.read(new BufferUnpacker().wrap(msgpack.write(c, tmpl)), null);
+        assertEquals(Circle.class, r.getClass());
+        assertEquals(0.5, ((Circle) r).radius, 0.0);
+    }
+}
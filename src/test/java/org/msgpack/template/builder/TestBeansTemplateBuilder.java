@@ -0,0 +1,226 @@
+package org.msgpack.template.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.msgpack.MessagePack;
+import org.msgpack.MessageTypeException;
+import org.msgpack.annotation.Beans;
+import org.msgpack.annotation.Ignore;
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.template.Template;
+import org.msgpack.unpacker.BufferUnpacker;
+
+import org.junit.Test;
+
+public class TestBeansTemplateBuilder {
+    @Beans
+    public static class Account {
+        private int id;
+        private String name;
+        private double balance;
+        private String cache;
+
+        public Account() { }
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            if (id < 0) {
+                throw new IllegalArgumentException("negative id");
+            }
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public double getBalance() {
+            return balance;
+        }
+
+        public void setBalance(double balance) {
+            this.balance = balance;
+        }
+
+        @Ignore
+        public String getCache() {
+            return cache;
+        }
+
+        public void setCache(String cache) {
+            this.cache = cache;
+        }
+
+        public String getSummary() {
+            return name + ":" + balance;
+        }
+    }
+
+    @Test
+    public void testProperties() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        Account a = new Account();
+        a.setId(7);
+        a.setName("name");
+        a.setBalance(1.5);
+        a.setCache("cache");
+        byte[] bytes = msgpack.write(a);
+
+        BufferUnpacker u = new BufferUnpacker().wrap(bytes);
+        // balance, id, name
+        assertEquals(3, u.readArrayBegin());
+
+        Account b = msgpack.read(bytes, Account.class);
+        assertEquals(7, b.getId());
+        assertEquals("name", b.getName());
+        assertEquals(1.5, b.getBalance(), 0.0);
+        assertEquals(null, b.getCache());
+    }
+
+    @Test
+    public void testNullProperty() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        Account a = new Account();
+        Account b = msgpack.read(msgpack.write(a), Account.class);
+        assertEquals(null, b.getName());
+    }
+
+    @Test
+    public void testSetterValidation() throws IOException {
+        BufferPacker pk = new BufferPacker();
+        pk.writeArrayBegin(3);
+        pk.writeDouble(0.0);
+        pk.writeInt(-1);
+        pk.writeNil();
+        pk.writeArrayEnd();
+
+        MessagePack msgpack = new MessagePack();
+        Template tmpl = msgpack.getTemplate(Account.class);
+        try {
+            tmpl.read(new BufferUnpacker().wrap(pk.toByteArray()), null);
+            fail();
+        } catch (MessageTypeException e) {
+        }
+    }
+
+    @Beans
+    public static class Primitives {
+        private boolean flag;
+        private byte b;
+        private short s;
+        private long l;
+        private float f;
+        private List<String> tags;
+
+        public Primitives() { }
+
+        public boolean isFlag() {
+            return flag;
+        }
+
+        public void setFlag(boolean flag) {
+            this.flag = flag;
+        }
+
+        public byte getB() {
+            return b;
+        }
+
+        public void setB(byte b) {
+            this.b = b;
+        }
+
+        public short getS() {
+            return s;
+        }
+
+        public void setS(short s) {
+            this.s = s;
+        }
+
+        public long getL() {
+            return l;
+        }
+
+        public void setL(long l) {
+            this.l = l;
+        }
+
+        public float getF() {
+            return f;
+        }
+
+        public void setF(float f) {
+            this.f = f;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+        public void setTags(List<String> tags) {
+            this.tags = tags;
+        }
+    }
+
+    @Beans
+    static class Hidden {
+        private int id;
+
+        public Hidden() { }
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+    }
+
+    @Test
+    public void testGeneratedTemplate() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        Template tmpl = msgpack.getTemplate(Primitives.class);
+        assertFalse(tmpl instanceof ReflectionTemplateBuilder.ReflectionTemplate);
+
+        Primitives p = new Primitives();
+        p.setFlag(true);
+        p.setB((byte) 1);
+        p.setS((short) 2);
+        p.setL(3L);
+        p.setF(4.0f);
+        p.setTags(new ArrayList<String>());
+        p.getTags().add("t");
+        Primitives q = msgpack.read(msgpack.write(p), Primitives.class);
+        assertEquals(true, q.isFlag());
+        assertEquals(1, q.getB());
+        assertEquals(2, q.getS());
+        assertEquals(3L, q.getL());
+        assertEquals(4.0f, q.getF(), 0.0f);
+        assertEquals(p.getTags(), q.getTags());
+    }
+
+    @Test
+    public void testReflectionForHiddenClass() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        assertTrue(msgpack.getTemplate(Hidden.class) instanceof ReflectionTemplateBuilder.ReflectionTemplate);
+        Hidden h = new Hidden();
+        h.setId(5);
+        assertEquals(5, msgpack.read(msgpack.write(h), Hidden.class).getId());
+    }
+}
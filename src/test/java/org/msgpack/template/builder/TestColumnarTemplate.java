@@ -0,0 +1,101 @@
+package org.msgpack.template.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.msgpack.MessagePack;
+import org.msgpack.annotation.Message;
+import org.msgpack.annotation.Optional;
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.unpacker.BufferUnpacker;
+
+import org.junit.Test;
+
+public class TestColumnarTemplate {
+    @Message
+    public static class Trade {
+        public int id;
+        public double price;
+        public long volume;
+        public boolean buy;
+        public String symbol;
+        @Optional
+        public String note;
+
+        public Trade() { }
+    }
+
+    private List<Trade> trades(int n) {
+        List<Trade> list = new ArrayList<Trade>();
+        for(int i=0; i < n; i++) {
+            Trade t = new Trade();
+            t.id = i;
+            t.price = i * 0.5;
+            t.volume = i * 100000000000L;
+            t.buy = i % 2 == 0;
+            t.symbol = "S" + (i % 3);
+            t.note = i % 4 == 0 ? null : "n" + i;
+            list.add(t);
+        }
+        return list;
+    }
+
+    @Test
+    public void testWriteRead() throws Exception {
+        MessagePack msgpack = new MessagePack();
+        ColumnarTemplate tmpl = msgpack.getColumnarTemplate(Trade.class);
+        List<Trade> src = trades(100);
+
+        BufferPacker pk = new BufferPacker();
+        tmpl.write(pk, src);
+        BufferUnpacker u = new BufferUnpacker().wrap(pk.toByteArray());
+        List<Trade> dst = (List<Trade>) tmpl.read(u, null);
+
+        assertEquals(src.size(), dst.size());
+        for(int i=0; i < src.size(); i++) {
+            Trade a = src.get(i);
+            Trade b = dst.get(i);
+            assertEquals(a.id, b.id);
+            assertEquals(a.price, b.price, 0.0);
+            assertEquals(a.volume, b.volume);
+            assertEquals(a.buy, b.buy);
+            assertEquals(a.symbol, b.symbol);
+            assertEquals(a.note, b.note);
+        }
+    }
+
+    @Test
+    public void testReadColumns() throws Exception {
+        MessagePack msgpack = new MessagePack();
+        ColumnarTemplate tmpl = msgpack.getColumnarTemplate(Trade.class);
+        List<Trade> src = trades(10);
+
+        BufferPacker pk = new BufferPacker();
+        tmpl.write(pk, src);
+        BufferUnpacker u = new BufferUnpacker().wrap(pk.toByteArray());
+        Object[] columns = tmpl.readColumns(u, "id", "price");
+
+        int[] ids = (int[]) columns[tmpl.getColumnIndex("id")];
+        double[] prices = (double[]) columns[tmpl.getColumnIndex("price")];
+        assertEquals(null, columns[tmpl.getColumnIndex("symbol")]);
+        for(int i=0; i < src.size(); i++) {
+            assertEquals(src.get(i).id, ids[i]);
+            assertEquals(src.get(i).price, prices[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        MessagePack msgpack = new MessagePack();
+        ColumnarTemplate tmpl = msgpack.getColumnarTemplate(Trade.class);
+
+        BufferPacker pk = new BufferPacker();
+        tmpl.write(pk, new ArrayList<Trade>());
+        BufferUnpacker u = new BufferUnpacker().wrap(pk.toByteArray());
+        List<Trade> dst = (List<Trade>) tmpl.read(u, null);
+        assertTrue(dst.isEmpty());
+    }
+}
@@ -0,0 +1,213 @@
+package org.msgpack.template.builder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.msgpack.MessagePack;
+import org.msgpack.MessageTypeException;
+import org.msgpack.annotation.Creator;
+import org.msgpack.annotation.Optional;
+import org.msgpack.annotation.Required;
+import org.msgpack.packer.BufferPacker;
+
+import org.junit.Test;
+
+public class TestCreatorTemplateBuilder {
+    public static class Point {
+        public final int x;
+        public final int y;
+        public final String label;
+
+        @Creator
+        public Point(int x, int y, String label) {
+            this.x = x;
+            this.y = y;
+            this.label = label;
+        }
+    }
+
+    public static class Range {
+        public final long from;
+        public final List<String> tags;
+        @Optional
+        public final double weight;
+
+        private Range(long from, List<String> tags, double weight) {
+            this.from = from;
+            this.tags = tags;
+            this.weight = weight;
+        }
+
+        @Creator
+        public static Range of(long from, List<String> tags, double weight) {
+            return new Range(from, tags, weight);
+        }
+    }
+
+    public static class Mismatch {
+        public final int x;
+
+        @Creator
+        public Mismatch(long x) {
+            this.x = (int) x;
+        }
+    }
+
+    @Test
+    public void testConstructor() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        Point p = msgpack.read(msgpack.write(new Point(1, 2, "a")), Point.class);
+        assertEquals(1, p.x);
+        assertEquals(2, p.y);
+        assertEquals("a", p.label);
+    }
+
+    @Test
+    public void testFactoryMethod() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        List<String> tags = new ArrayList<String>();
+        tags.add("t");
+        Range r = msgpack.read(msgpack.write(Range.of(10L, tags, 0.5)), Range.class);
+        assertEquals(10L, r.from);
+        assertEquals(tags, r.tags);
+        assertEquals(0.5, r.weight, 0.0);
+    }
+
+    @Test
+    public void testMissingOptional() throws IOException {
+        BufferPacker pk = new BufferPacker();
+        pk.writeArrayBegin(2);
+        pk.writeLong(3L);
+        pk.writeArrayBegin(0);
+        pk.writeArrayEnd();
+        pk.writeArrayEnd();
+
+        MessagePack msgpack = new MessagePack();
+        Range r = msgpack.read(pk.toByteArray(), Range.class);
+        assertEquals(3L, r.from);
+        assertEquals(0.0, r.weight, 0.0);
+    }
+
+    @Test
+    public void testMismatch() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        try {
+            msgpack.getTemplate(Mismatch.class);
+            fail();
+        } catch (TemplateBuildException e) {
+        }
+    }
+
+    public static class Small {
+        public final byte b;
+        public final short s;
+        public final boolean flag;
+        @Optional
+        public final float f;
+
+        @Creator
+        public Small(byte b, short s, boolean flag, float f) {
+            this.b = b;
+            this.s = s;
+            this.flag = flag;
+            this.f = f;
+        }
+    }
+
+    static class Hidden {
+        public final int x;
+
+        @Creator
+        Hidden(int x) {
+            this.x = x;
+        }
+    }
+
+    private static CreatorTemplateBuilder.CreatorTemplate template(MessagePack msgpack, Class<?> c) {
+        return (CreatorTemplateBuilder.CreatorTemplate) msgpack.getTemplate(c);
+    }
+
+    @Test
+    public void testGeneratedCreator() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        assertNotNull(template(msgpack, Point.class).getGenerated());
+        assertNotNull(template(msgpack, Range.class).getGenerated());
+        assertNotNull(template(msgpack, Small.class).getGenerated());
+
+        Small s = msgpack.read(msgpack.write(new Small((byte) 1, (short) 2, true, 0.5f)), Small.class);
+        assertEquals(1, s.b);
+        assertEquals(2, s.s);
+        assertEquals(true, s.flag);
+        assertEquals(0.5f, s.f, 0.0f);
+    }
+
+    @Test
+    public void testReflectionForHiddenCreator() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        assertNull(template(msgpack, Hidden.class).getGenerated());
+        assertEquals(4, msgpack.read(msgpack.write(new Hidden(4)), Hidden.class).x);
+    }
+
+    @Test
+    public void testRequiredNil() throws IOException {
+        BufferPacker pk = new BufferPacker();
+        pk.writeArrayBegin(3);
+        pk.writeInt(1);
+        pk.writeNil();
+        pk.writeString("a");
+        pk.writeArrayEnd();
+
+        MessagePack msgpack = new MessagePack();
+        try {
+            msgpack.read(pk.toByteArray(), Point.class);
+            fail();
+        } catch (MessageTypeException e) {
+        }
+    }
+
+    public static class Secret {
+        @Required
+        private final int x;
+
+        @Creator
+        public Secret(int x) {
+            this.x = x;
+        }
+
+        public int getX() {
+            return x;
+        }
+    }
+
+    @Test
+    public void testGeneratedWrite() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        BufferPacker pk = new BufferPacker();
+        pk.writeArrayBegin(3);
+        pk.writeInt(1);
+        pk.writeInt(2);
+        pk.writeString("a");
+        pk.writeArrayEnd();
+        assertArrayEquals(pk.toByteArray(), msgpack.write(new Point(1, 2, "a")));
+
+        try {
+            msgpack.write(new Point(1, 2, null));
+            fail();
+        } catch (MessageTypeException e) {
+        }
+    }
+
+    @Test
+    public void testReflectionForPrivateFields() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        assertNull(template(msgpack, Secret.class).getGenerated());
+        assertEquals(5, msgpack.read(msgpack.write(new Secret(5)), Secret.class).getX());
+    }
+}
@@ -0,0 +1,131 @@
+package org.msgpack.template.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.msgpack.MessagePack;
+import org.msgpack.MessageTypeException;
+import org.msgpack.annotation.Delegate;
+import org.msgpack.annotation.Message;
+import org.msgpack.annotation.MessagePackDelegate;
+
+import org.junit.Test;
+
+public class TestDelegateTemplateBuilder {
+    @Delegate("toCents")
+    public static class Money {
+        private final long cents;
+
+        public Money(long cents) {
+            this.cents = cents;
+        }
+
+        public long toCents() {
+            return cents;
+        }
+    }
+
+    @MessagePackDelegate("toString")
+    public static class Uuid {
+        private final String value;
+
+        private Uuid(String value) {
+            this.value = value;
+        }
+
+        public static Uuid parse(String value) {
+            return new Uuid(value);
+        }
+
+        public String toString() {
+            return value;
+        }
+    }
+
+    @Delegate("toCents")
+    public static class Broken {
+        public long toCents() {
+            return 0;
+        }
+    }
+
+    @Message
+    public static class Payment {
+        public Money amount;
+        public Uuid id;
+
+        public Payment() { }
+    }
+
+    @Test
+    public void testConstructor() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        byte[] bytes = msgpack.write(new Money(100));
+        assertEquals(1, bytes.length);
+        assertEquals(100, msgpack.read(bytes, Money.class).toCents());
+    }
+
+    @Test
+    public void testFactoryMethod() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        byte[] bytes = msgpack.write(Uuid.parse("abc"));
+        assertEquals("abc", msgpack.read(bytes, Uuid.class).toString());
+    }
+
+    @Test
+    public void testField() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        Payment p = new Payment();
+        p.amount = new Money(-5);
+        p.id = Uuid.parse("xyz");
+        Payment q = msgpack.read(msgpack.write(p), Payment.class);
+        assertEquals(-5, q.amount.toCents());
+        assertEquals("xyz", q.id.toString());
+    }
+
+    @Test
+    public void testNoConstructor() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        try {
+            msgpack.getTemplate(Broken.class);
+            fail();
+        } catch (TemplateBuildException e) {
+        }
+    }
+
+    @Delegate("value")
+    static class Hidden {
+        private final int value;
+
+        public Hidden(int value) {
+            this.value = value;
+        }
+
+        public int value() {
+            return value;
+        }
+    }
+
+    @Test
+    public void testGeneratedTemplate() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        assertFalse(msgpack.getTemplate(Money.class) instanceof DelegateTemplateBuilder.DelegateTemplate);
+        assertFalse(msgpack.getTemplate(Uuid.class) instanceof DelegateTemplateBuilder.DelegateTemplate);
+        try {
+            msgpack.write(Uuid.parse(null));
+            fail();
+        } catch (MessageTypeException e) {
+        }
+    }
+
+    @Test
+    public void testReflectionForHiddenClass() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        assertTrue(msgpack.getTemplate(Hidden.class) instanceof DelegateTemplateBuilder.DelegateTemplate);
+        assertEquals(3, msgpack.read(msgpack.write(new Hidden(3)), Hidden.class).value());
+    }
+}
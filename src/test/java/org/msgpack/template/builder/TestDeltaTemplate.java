@@ -0,0 +1,104 @@
+package org.msgpack.template.builder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.msgpack.MessagePack;
+import org.msgpack.MessageTypeException;
+import org.msgpack.annotation.Message;
+import org.msgpack.annotation.Optional;
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.unpacker.BufferUnpacker;
+
+import org.junit.Test;
+
+public class TestDeltaTemplate {
+    @Message
+    public static class State {
+        public int counter;
+        public String status;
+        public long[] samples;
+        @Optional
+        public String note;
+        public double load;
+
+        public State() { }
+    }
+
+    private State state() {
+        State s = new State();
+        s.counter = 1;
+        s.status = "ok";
+        s.samples = new long[] { 1, 2 };
+        s.note = "n";
+        s.load = 0.5;
+        return s;
+    }
+
+    @Test
+    public void testDelta() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        DeltaTemplate tmpl = msgpack.getDeltaTemplate(State.class);
+        assertTrue(tmpl == msgpack.getDeltaTemplate(State.class));
+
+        State base = state();
+        State next = state();
+        next.counter = 2;
+        next.note = null;
+
+        BufferPacker pk = new BufferPacker();
+        tmpl.writeDelta(pk, base, next);
+        byte[] delta = pk.toByteArray();
+
+        BufferUnpacker u = new BufferUnpacker().wrap(delta);
+        assertEquals(3, u.readArrayBegin());
+        assertArrayEquals(new byte[] { 0x09 }, u.readByteArray());
+
+        State replica = state();
+        tmpl.read(new BufferUnpacker().wrap(delta), replica);
+        assertEquals(2, replica.counter);
+        assertEquals("ok", replica.status);
+        assertArrayEquals(new long[] { 1, 2 }, replica.samples);
+        assertEquals(null, replica.note);
+        assertEquals(0.5, replica.load, 0.0);
+    }
+
+    @Test
+    public void testUnchanged() throws IOException {
+        DeltaTemplate tmpl = new MessagePack().getDeltaTemplate(State.class);
+        BufferPacker pk = new BufferPacker();
+        tmpl.writeDelta(pk, state(), state());
+        BufferUnpacker u = new BufferUnpacker().wrap(pk.toByteArray());
+        assertEquals(1, u.readArrayBegin());
+        assertArrayEquals(new byte[] { 0 }, u.readByteArray());
+    }
+
+    @Test
+    public void testFull() throws IOException {
+        DeltaTemplate tmpl = new MessagePack().getDeltaTemplate(State.class);
+        BufferPacker pk = new BufferPacker();
+        tmpl.write(pk, state());
+        State s = (State) tmpl.read(new BufferUnpacker().wrap(pk.toByteArray()), null);
+        assertEquals(1, s.counter);
+        assertEquals("n", s.note);
+    }
+
+    @Test
+    public void testUnknownField() throws IOException {
+        DeltaTemplate tmpl = new MessagePack().getDeltaTemplate(State.class);
+        BufferPacker pk = new BufferPacker();
+        pk.writeArrayBegin(2);
+        pk.writeByteArray(new byte[] { 0x20 });
+        pk.writeInt(0);
+        pk.writeArrayEnd();
+        try {
+            tmpl.read(new BufferUnpacker().wrap(pk.toByteArray()), state());
+            fail();
+        } catch (MessageTypeException e) {
+        }
+    }
+}
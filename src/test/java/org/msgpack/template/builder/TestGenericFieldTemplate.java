@@ -0,0 +1,115 @@
+package org.msgpack.template.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.msgpack.MessagePack;
+import org.msgpack.TemplateRegistry;
+import org.msgpack.annotation.Message;
+import org.msgpack.template.ListTemplate;
+import org.msgpack.template.StringTemplate;
+import org.msgpack.template.Template;
+
+import org.junit.Test;
+
+public class TestGenericFieldTemplate {
+    @Message
+    public static class Item {
+        public String name;
+
+        public Item() { }
+    }
+
+    @Message
+    public static class Order {
+        public List<String> tags;
+        public Map<String, List<Integer>> counts;
+        public Collection<Item> items;
+        public List<? extends Item> others;
+
+        public Order() { }
+    }
+
+    @Test
+    public void testGenericFields() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        Order o = new Order();
+        o.tags = new ArrayList<String>();
+        o.tags.add("a");
+        o.tags.add("b");
+        o.counts = new HashMap<String, List<Integer>>();
+        List<Integer> c = new ArrayList<Integer>();
+        c.add(1);
+        c.add(2);
+        o.counts.put("k", c);
+        o.items = new ArrayList<Item>();
+        Item i = new Item();
+        i.name = "item";
+        o.items.add(i);
+        o.others = new ArrayList<Item>();
+
+        Order p = msgpack.read(msgpack.write(o), Order.class);
+        assertEquals(o.tags, p.tags);
+        assertEquals(o.counts, p.counts);
+        assertEquals(1, p.items.size());
+        assertEquals("item", p.items.iterator().next().name);
+        assertEquals(0, p.others.size());
+    }
+
+    @Test
+    public void testCachedPerSignature() throws Exception {
+        TemplateRegistry registry = new TemplateRegistry(null);
+        Type type = Order.class.getField("tags").getGenericType();
+        Template tmpl = registry.lookup(type);
+        assertTrue(tmpl instanceof ListTemplate);
+        assertTrue(tmpl == registry.lookup(type));
+    }
+
+    @Test
+    public void testCacheInvalidatedByRegister() throws Exception {
+        TemplateRegistry registry = new TemplateRegistry(null);
+        Type type = Order.class.getField("tags").getGenericType();
+        Template tmpl = registry.lookup(type);
+        registry.register(String.class, StringTemplate.getInstance());
+        Template registered = registry.lookup(type);
+        assertTrue(tmpl != registered);
+        registry.unregister(Item.class);
+        assertTrue(registered != registry.lookup(type));
+    }
+
+    @Test
+    public void testCacheKeptByLookup() throws Exception {
+        TemplateRegistry registry = new TemplateRegistry(null);
+        Type type = Order.class.getField("tags").getGenericType();
+        Template tmpl = registry.lookup(type);
+        // templates the registry builds itself do not replace any
+        registry.lookup(Item.class);
+        registry.lookup(Order.class);
+        assertTrue(tmpl == registry.lookup(type));
+    }
+
+    @Test
+    public void testAllCachesInvalidatedByRegister() throws Exception {
+        TemplateRegistry registry = new TemplateRegistry(null);
+        Template columnar = registry.lookupColumnar(Item.class);
+        Template delta = registry.lookupDelta(Item.class);
+        Template projection = registry.lookupProjection(Item.class, "name");
+        registry.lookup(Order.class);
+        assertTrue(columnar == registry.lookupColumnar(Item.class));
+        assertTrue(delta == registry.lookupDelta(Item.class));
+        assertTrue(projection == registry.lookupProjection(Item.class, "name"));
+
+        registry.register(String.class, StringTemplate.getInstance());
+        assertTrue(columnar != registry.lookupColumnar(Item.class));
+        assertTrue(delta != registry.lookupDelta(Item.class));
+        assertTrue(projection != registry.lookupProjection(Item.class, "name"));
+    }
+}
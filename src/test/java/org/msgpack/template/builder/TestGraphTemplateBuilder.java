@@ -0,0 +1,123 @@
+package org.msgpack.template.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.msgpack.MessagePack;
+import org.msgpack.annotation.Message;
+import org.msgpack.annotation.Optional;
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.template.Template;
+import org.msgpack.unpacker.BufferUnpacker;
+
+import org.junit.Test;
+
+public class TestGraphTemplateBuilder {
+    @Message
+    public static class Category {
+        public String name;
+
+        public Category() { }
+    }
+
+    @Message
+    public static class Product {
+        public String name;
+        public Category category;
+
+        public Product() { }
+    }
+
+    @Message
+    public static class Catalog {
+        public List<Product> products;
+
+        public Catalog() { }
+    }
+
+    @Message
+    public static class Node {
+        public int value;
+        @Optional
+        public Node next;
+
+        public Node() { }
+    }
+
+    private Catalog catalog() {
+        Category c = new Category();
+        c.name = "category";
+        Catalog catalog = new Catalog();
+        catalog.products = new ArrayList<Product>();
+        for (int i = 0; i < 10; i++) {
+            Product p = new Product();
+            p.name = "p" + i;
+            p.category = c;
+            catalog.products.add(p);
+        }
+        return catalog;
+    }
+
+    @Test
+    public void testSharedReferences() throws IOException {
+        MessagePack plain = new MessagePack();
+        int plainSize = plain.write(catalog()).length;
+
+        MessagePack msgpack = new MessagePack();
+        msgpack.registerGraph(Category.class);
+        byte[] bytes = msgpack.write(catalog());
+        assertTrue(bytes.length < plainSize);
+
+        Catalog c = msgpack.read(bytes, Catalog.class);
+        assertEquals(10, c.products.size());
+        assertEquals("category", c.products.get(0).category.name);
+        for (Product p : c.products) {
+            assertTrue(p.category == c.products.get(0).category);
+        }
+    }
+
+    @Test
+    public void testCycle() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        msgpack.registerGraph(Node.class);
+        Node a = new Node();
+        Node b = new Node();
+        a.value = 1;
+        b.value = 2;
+        a.next = b;
+        b.next = a;
+
+        Template tmpl = msgpack.getTemplate(Node.class);
+        BufferPacker pk = new BufferPacker();
+        tmpl.write(pk, a);
+        Node r = (Node) tmpl.read(new BufferUnpacker().wrap(pk.toByteArray()), null);
+        assertEquals(1, r.value);
+        assertEquals(2, r.next.value);
+        assertTrue(r.next.next == r);
+    }
+
+    @Test
+    public void testReset() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        msgpack.registerGraph(Category.class);
+        Template tmpl = msgpack.getTemplate(Category.class);
+        Category c = new Category();
+        c.name = "c";
+
+        BufferPacker pk = new BufferPacker();
+        tmpl.write(pk, c);
+        pk.resetObjectReferences();
+        tmpl.write(pk, c);
+
+        BufferUnpacker u = new BufferUnpacker().wrap(pk.toByteArray());
+        Category r1 = (Category) tmpl.read(u, null);
+        u.resetObjectReferences();
+        Category r2 = (Category) tmpl.read(u, null);
+        assertEquals("c", r2.name);
+        assertTrue(r1 != r2);
+    }
+}
@@ -0,0 +1,116 @@
+package org.msgpack.template.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.msgpack.MessagePack;
+import org.msgpack.MessageTypeException;
+import org.msgpack.annotation.Message;
+import org.msgpack.annotation.Optional;
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.value.MapValue;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import org.junit.Test;
+
+public class TestMapReflectionTemplateBuilder {
+    @Message
+    public static class User {
+        public int id;
+        public String name;
+        @Optional
+        public String email;
+        public double score;
+
+        public User() { }
+    }
+
+    private User user() {
+        User u = new User();
+        u.id = 7;
+        u.name = "alice";
+        u.email = null;
+        u.score = 1.5;
+        return u;
+    }
+
+    @Test
+    public void testWriteRead() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        msgpack.registerMap(User.class);
+        byte[] bytes = msgpack.write(user());
+
+        Value v = msgpack.read(bytes);
+        assertTrue(v.isMap());
+        MapValue map = v.asMapValue();
+        assertEquals(4, map.size());
+        assertEquals(ValueFactory.integerValue(7), map.get(ValueFactory.rawValue("id")));
+        assertEquals(ValueFactory.rawValue("alice"), map.get(ValueFactory.rawValue("name")));
+
+        User u = msgpack.read(bytes, User.class);
+        assertEquals(7, u.id);
+        assertEquals("alice", u.name);
+        assertEquals(null, u.email);
+        assertEquals(1.5, u.score, 0.0);
+    }
+
+    @Test
+    public void testUnknownAndReorderedKeys() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        msgpack.registerMap(User.class);
+
+        BufferPacker pk = new BufferPacker();
+        pk.writeMapBegin(4);
+        pk.writeString("score");
+        pk.writeDouble(2.0);
+        pk.writeString("unknown");
+        pk.writeArrayBegin(1);
+        pk.writeInt(1);
+        pk.writeArrayEnd();
+        pk.writeString("name");
+        pk.writeString("bob");
+        pk.writeString("id");
+        pk.writeInt(9);
+        pk.writeMapEnd();
+
+        User u = msgpack.read(pk.toByteArray(), User.class);
+        assertEquals(9, u.id);
+        assertEquals("bob", u.name);
+        assertEquals(2.0, u.score, 0.0);
+    }
+
+    @Test
+    public void testMissingRequiredKey() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        msgpack.registerMap(User.class);
+
+        BufferPacker pk = new BufferPacker();
+        pk.writeMapBegin(1);
+        pk.writeString("id");
+        pk.writeInt(9);
+        pk.writeMapEnd();
+
+        try {
+            msgpack.read(pk.toByteArray(), User.class);
+            fail();
+        } catch (MessageTypeException e) {
+        }
+    }
+
+    @Test
+    public void testReadFromStream() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        msgpack.registerMap(User.class);
+        byte[] bytes = msgpack.write(user());
+
+        User u = msgpack.read(new ByteArrayInputStream(bytes), User.class);
+        assertEquals(7, u.id);
+        assertEquals("alice", u.name);
+        assertEquals(1.5, u.score, 0.0);
+    }
+}
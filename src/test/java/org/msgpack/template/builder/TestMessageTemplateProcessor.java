@@ -0,0 +1,129 @@
+package org.msgpack.template.builder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.msgpack.MessagePack;
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.template.Template;
+import org.msgpack.unpacker.BufferUnpacker;
+
+import org.junit.Test;
+
+public class TestMessageTemplateProcessor {
+    private static final String SOURCE =
+        "package gen;\n" +
+        "import java.util.List;\n" +
+        "import org.msgpack.annotation.*;\n" +
+        "@Message\n" +
+        "public class Sample extends Base {\n" +
+        "    public int id;\n" +
+        "    public String name;\n" +
+        "    @Index(4) public List<String> tags;\n" +
+        "    @Optional public long version;\n" +
+        "    public transient int cache;\n" +
+        "    @Message public static class Child {\n" +
+        "        public double value;\n" +
+        "    }\n" +
+        "    @Optional public Child child;\n" +
+        "}\n";
+
+    private static final String BASE_SOURCE =
+        "package gen;\n" +
+        "import org.msgpack.annotation.*;\n" +
+        "@Message\n" +
+        "public class Base {\n" +
+        "    @NotNullable public String base;\n" +
+        "}\n";
+
+    private Class<?> compile() throws Exception {
+        File dir = File.createTempFile("msgpack", "gen");
+        dir.delete();
+        File src = new File(dir, "gen");
+        src.mkdirs();
+        File file = write(new File(src, "Sample.java"), SOURCE);
+        File baseFile = write(new File(src, "Base.java"), BASE_SOURCE);
+
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        int ret = javac.run(null, null, null, "-nowarn",
+                "-classpath", System.getProperty("java.class.path"),
+                "-processor", MessageTemplateProcessor.class.getName(),
+                "-s", dir.getPath(), "-d", dir.getPath(), file.getPath(), baseFile.getPath());
+        assertEquals(0, ret);
+        assertTrue(new File(src, "Sample_$$_Template.java").exists());
+        assertTrue(new File(src, "Sample$Child_$$_Template.java").exists());
+
+        ClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL() }, getClass().getClassLoader());
+        return Class.forName("gen.Sample", true, loader);
+    }
+
+    private static File write(File file, String source) throws IOException {
+        FileWriter w = new FileWriter(file);
+        w.write(source);
+        w.close();
+        return file;
+    }
+
+    @Test
+    public void testGeneratedTemplate() throws Exception {
+        Class<?> c = compile();
+        Object o = c.newInstance();
+        c.getField("base").set(o, "b");
+        c.getField("id").set(o, 7);
+        c.getField("name").set(o, "n");
+        c.getField("tags").set(o, Arrays.asList("x", "y"));
+        c.getField("version").set(o, 3L);
+
+        MessagePack msgpack = new MessagePack();
+        Template generated = msgpack.getTemplate(c);
+        assertEquals("gen.Sample_$$_Template", generated.getClass().getName());
+
+        ReflectionTemplateBuilder builder = new ReflectionTemplateBuilder(new org.msgpack.TemplateRegistry(null));
+        Template reflection = builder.buildTemplate(c);
+
+        BufferPacker pk1 = new BufferPacker();
+        generated.write(pk1, o);
+        BufferPacker pk2 = new BufferPacker();
+        reflection.write(pk2, o);
+        assertArrayEquals(pk2.toByteArray(), pk1.toByteArray());
+
+        Object r = generated.read(new BufferUnpacker().wrap(pk1.toByteArray()), null);
+        assertEquals("b", c.getField("base").get(r));
+        assertEquals(7, c.getField("id").get(r));
+        assertEquals("n", c.getField("name").get(r));
+        assertEquals(Arrays.asList("x", "y"), c.getField("tags").get(r));
+        assertEquals(3L, c.getField("version").get(r));
+        assertEquals(null, c.getField("child").get(r));
+    }
+
+    @Test
+    public void testShortArray() throws Exception {
+        Class<?> c = compile();
+        BufferPacker pk = new BufferPacker();
+        pk.writeArrayBegin(5);
+        pk.writeString("b");
+        pk.writeInt(1);
+        pk.writeString("n");
+        pk.writeNil();
+        pk.writeArrayBegin(0);
+        pk.writeArrayEnd();
+        pk.writeArrayEnd();
+
+        MessagePack msgpack = new MessagePack();
+        Template generated = msgpack.getTemplate(c);
+        Object r = generated.read(new BufferUnpacker().wrap(pk.toByteArray()), null);
+        assertEquals(1, c.getField("id").get(r));
+        assertEquals(0L, c.getField("version").get(r));
+    }
+}
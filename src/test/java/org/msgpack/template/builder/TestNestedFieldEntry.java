@@ -0,0 +1,150 @@
+package org.msgpack.template.builder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.msgpack.MessagePack;
+import org.msgpack.MessageTypeException;
+import org.msgpack.annotation.Message;
+import org.msgpack.annotation.Optional;
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.template.Template;
+
+import org.junit.Test;
+
+public class TestNestedFieldEntry {
+    @Message
+    public static final class Level {
+        public long price;
+        public long size;
+
+        public Level() { }
+    }
+
+    @Message
+    public static final class Book {
+        public Level bid;
+        public Level ask;
+
+        public Book() { }
+    }
+
+    @Message
+    public static class Open {
+        public int value;
+
+        public Open() { }
+    }
+
+    @Message
+    public static class Holder {
+        public Book book;
+        public Open open;
+
+        public Holder() { }
+    }
+
+    @Test
+    public void testNested() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        Holder h = new Holder();
+        h.book = new Book();
+        h.book.bid = new Level();
+        h.book.bid.price = 100;
+        h.book.bid.size = 2;
+        h.book.ask = new Level();
+        h.book.ask.price = 101;
+        h.open = new Open();
+        h.open.value = 5;
+
+        Holder r = msgpack.read(msgpack.write(h), Holder.class);
+        assertEquals(100, r.book.bid.price);
+        assertEquals(2, r.book.bid.size);
+        assertEquals(101, r.book.ask.price);
+        assertEquals(5, r.open.value);
+
+        Template tmpl = msgpack.getTemplate(Holder.class);
+        ReflectionTemplateBuilder.ReflectionFieldEntry[] entries = ((ReflectionTemplateBuilder.ReflectionTemplate) tmpl).entries;
+        assertTrue(entries[0] instanceof ReflectionTemplateBuilder.NestedFieldEntry);
+        assertTrue(entries[1] instanceof ReflectionTemplateBuilder.ObjectFieldEntry);
+    }
+
+    @Message
+    public static class Quote {
+        public String symbol;
+        public Book book;
+        @Optional
+        public Level last;
+
+        public Quote() { }
+    }
+
+    private static ReflectionTemplateBuilder.ReflectionTemplate template(MessagePack msgpack, Class<?> c) {
+        return (ReflectionTemplateBuilder.ReflectionTemplate) msgpack.getTemplate(c);
+    }
+
+    @Test
+    public void testFused() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        assertNotNull(template(msgpack, Quote.class).getFused());
+        assertNotNull(template(msgpack, Book.class).getFused());
+        assertNull(template(msgpack, Level.class).getFused());
+
+        Quote q = new Quote();
+        q.symbol = "ABC";
+        q.book = new Book();
+        q.book.bid = new Level();
+        q.book.bid.price = 100;
+        q.book.bid.size = 3;
+        q.book.ask = new Level();
+        q.book.ask.price = 101;
+
+        // the same bytes as the reflective path
+        BufferPacker pk = new BufferPacker();
+        template(msgpack, Quote.class).writeObject(pk, q);
+        byte[] bytes = msgpack.write(q);
+        assertArrayEquals(pk.toByteArray(), bytes);
+
+        Quote r = msgpack.read(bytes, Quote.class);
+        assertEquals("ABC", r.symbol);
+        assertEquals(100, r.book.bid.price);
+        assertEquals(3, r.book.bid.size);
+        assertEquals(101, r.book.ask.price);
+        assertNull(r.last);
+    }
+
+    @Test
+    public void testFusedNull() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        Quote q = new Quote();
+        q.symbol = "ABC";
+        try {
+            msgpack.write(q);
+            fail();
+        } catch (MessageTypeException e) {
+        }
+
+        // a nested object with a missing trailing field
+        BufferPacker pk = new BufferPacker();
+        pk.writeArrayBegin(2);
+        pk.writeString("ABC");
+        pk.writeArrayBegin(2);
+        pk.writeArrayBegin(1);
+        pk.writeLong(7);
+        pk.writeArrayEnd();
+        pk.writeNil();
+        pk.writeArrayEnd();
+        pk.writeArrayEnd();
+        try {
+            msgpack.read(pk.toByteArray(), Quote.class);
+            fail();
+        } catch (MessageTypeException e) {
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.msgpack.template.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.msgpack.MessagePack;
+import org.msgpack.MessageTypeException;
+import org.msgpack.annotation.Message;
+import org.msgpack.annotation.OrdinalEnum;
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.template.OrdinalEnumTemplate;
+import org.msgpack.template.Template;
+import org.msgpack.unpacker.BufferUnpacker;
+
+import org.junit.Test;
+
+public class TestOrdinalEnumTemplateBuilder {
+    @OrdinalEnum
+    public static enum Color {
+        RED, GREEN, BLUE
+    }
+
+    @Message
+    public static class Pixel {
+        public int x;
+        public Color color;
+
+        public Pixel() { }
+    }
+
+    @Test
+    public void testEnum() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        byte[] bytes = msgpack.write(Color.BLUE);
+        assertEquals(1, bytes.length);
+        assertEquals(2, bytes[0]);
+        assertEquals(Color.BLUE, msgpack.read(bytes, Color.class));
+    }
+
+    @Test
+    public void testEnumField() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        Pixel p = new Pixel();
+        p.x = 10;
+        p.color = Color.GREEN;
+        Pixel q = msgpack.read(msgpack.write(p), Pixel.class);
+        assertEquals(10, q.x);
+        assertTrue(q.color == Color.GREEN);
+    }
+
+    @Test
+    public void testUnknownOrdinal() throws IOException {
+        Template tmpl = new OrdinalEnumTemplate(Color.class);
+        BufferPacker pk = new BufferPacker();
+        pk.writeInt(3);
+        try {
+            tmpl.read(new BufferUnpacker().wrap(pk.toByteArray()), null);
+            fail();
+        } catch (MessageTypeException e) {
+        }
+    }
+
+    @OrdinalEnum
+    public static enum Op {
+        ADD {
+            int apply(int a, int b) {
+                return a + b;
+            }
+        },
+        SUB {
+            int apply(int a, int b) {
+                return a - b;
+            }
+        };
+
+        abstract int apply(int a, int b);
+    }
+
+    @Test
+    public void testConstantWithBody() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        assertTrue(Op.SUB.getClass() != Op.class);
+        assertTrue(msgpack.getTemplate(Op.SUB.getClass()) instanceof OrdinalEnumTemplate);
+        byte[] bytes = msgpack.write(Op.SUB);
+        assertEquals(1, bytes.length);
+        assertEquals(1, bytes[0]);
+        assertTrue(msgpack.read(bytes, Op.class) == Op.SUB);
+    }
+}
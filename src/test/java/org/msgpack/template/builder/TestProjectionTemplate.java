@@ -0,0 +1,153 @@
+package org.msgpack.template.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.msgpack.MessagePack;
+import org.msgpack.MessageTypeException;
+import org.msgpack.annotation.Message;
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.template.Template;
+import org.msgpack.unpacker.BufferUnpacker;
+import org.msgpack.unpacker.StreamUnpacker;
+
+import org.junit.Test;
+
+public class TestProjectionTemplate {
+    @Message
+    public static class Document {
+        public int id;
+        public String title;
+        public int[] body;
+        public String author;
+        public double rank;
+
+        public Document() { }
+    }
+
+    private Document document() {
+        Document d = new Document();
+        d.id = 1;
+        d.title = "title";
+        d.body = new int[] { 1, 2, 3 };
+        d.author = "author";
+        d.rank = 0.5;
+        return d;
+    }
+
+    @Test
+    public void testProjectionByName() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        byte[] bytes = msgpack.write(document());
+
+        Template tmpl = msgpack.getProjectionTemplate(Document.class, "id", "author");
+        assertTrue(tmpl == msgpack.getProjectionTemplate(Document.class, "id", "author"));
+        Document d = (Document) tmpl.read(new BufferUnpacker().wrap(bytes), null);
+        assertEquals(1, d.id);
+        assertEquals(null, d.title);
+        assertEquals(null, d.body);
+        assertEquals("author", d.author);
+        assertEquals(0.0, d.rank, 0.0);
+    }
+
+    @Test
+    public void testProjectionByIndex() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        byte[] bytes = msgpack.write(document());
+
+        Template tmpl = msgpack.getProjectionTemplate(Document.class, 4);
+        Document d = (Document) tmpl.read(new StreamUnpacker(new ByteArrayInputStream(bytes)), null);
+        assertEquals(0, d.id);
+        assertEquals(null, d.title);
+        assertEquals(0.5, d.rank, 0.0);
+    }
+
+    @Test
+    public void testNoSuchField() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        try {
+            msgpack.getProjectionTemplate(Document.class, "none");
+            fail();
+        } catch (TemplateBuildException e) {
+        }
+    }
+
+    @Test
+    public void testSkipNested() throws IOException {
+        BufferPacker pk = new BufferPacker();
+        pk.writeArrayBegin(3);
+        pk.writeMapBegin(1);
+        pk.writeString("k");
+        pk.writeArrayBegin(0);
+        pk.writeArrayEnd();
+        pk.writeMapEnd();
+        pk.writeArrayBegin(2);
+        pk.writeString("x");
+        pk.writeArrayBegin(1);
+        pk.writeDouble(1.0);
+        pk.writeArrayEnd();
+        pk.writeArrayEnd();
+        pk.writeNil();
+        pk.writeArrayEnd();
+        pk.writeInt(42);
+
+        BufferUnpacker u = new BufferUnpacker().wrap(pk.toByteArray());
+        u.skip();
+        assertEquals(42, u.readInt());
+
+        u = new BufferUnpacker().wrap(pk.toByteArray());
+        assertEquals(3, u.readArrayBegin());
+        u.skip();
+        u.skip();
+        u.readNil();
+        u.readArrayEnd();
+        assertEquals(42, u.readInt());
+    }
+
+    @Test
+    public void testWriteIsRejected() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        Template tmpl = msgpack.getProjectionTemplate(Document.class, "id");
+        try {
+            tmpl.write(new BufferPacker(), document());
+            fail();
+        } catch (MessageTypeException e) {
+        }
+    }
+
+    @Test
+    public void testProjectionOfCreatorClass() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        byte[] bytes = msgpack.write(new TestCreatorTemplateBuilder.Point(1, 2, "a"));
+
+        Template tmpl = msgpack.getProjectionTemplate(TestCreatorTemplateBuilder.Point.class, "y");
+        TestCreatorTemplateBuilder.Point p = (TestCreatorTemplateBuilder.Point) tmpl.read(new BufferUnpacker().wrap(bytes), null);
+        assertEquals(0, p.x);
+        assertEquals(2, p.y);
+        assertEquals(null, p.label);
+    }
+
+    @Test
+    public void testProjectionOfBeans() throws IOException {
+        MessagePack msgpack = new MessagePack();
+        TestBeansTemplateBuilder.Account a = new TestBeansTemplateBuilder.Account();
+        a.setId(3);
+        a.setName("n");
+        a.setBalance(2.5);
+        byte[] bytes = msgpack.write(a);
+
+        Template tmpl = msgpack.getProjectionTemplate(TestBeansTemplateBuilder.Account.class, "name");
+        TestBeansTemplateBuilder.Account b = (TestBeansTemplateBuilder.Account) tmpl.read(new BufferUnpacker().wrap(bytes), null);
+        assertEquals(0, b.getId());
+        assertEquals("n", b.getName());
+        assertEquals(0.0, b.getBalance(), 0.0);
+    }
+}
@@ -0,0 +1,79 @@
+package org.msgpack.value;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.msgpack.MessagePack;
+import org.msgpack.packer.BufferPacker;
+import org.msgpack.packer.Unconverter;
+import org.msgpack.unpacker.BufferUnpacker;
+import org.junit.Test;
+
+public class TestMemoizedValue {
+    private static Value config() {
+        Value flags = ValueFactory.arrayValue(new Value[] {
+            ValueFactory.rawValue("beta"),
+            ValueFactory.booleanValue(true),
+            ValueFactory.integerValue(300),
+        });
+        return ValueFactory.mapValue(new Value[] {
+            ValueFactory.rawValue("version"), ValueFactory.integerValue(3),
+            ValueFactory.rawValue("flags"), flags,
+        });
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        Value v = config();
+        Value m = ValueFactory.memoizedValue(v);
+        assertTrue(m.isMap());
+        assertEquals(v, m);
+        assertEquals(v.hashCode(), m.hashCode());
+        assertSame(m, ValueFactory.memoizedValue(m));
+
+        MessagePack msgpack = new MessagePack();
+        byte[] expected = msgpack.write(v);
+        // the first write encodes, the second reuses the bytes
+        assertArrayEquals(expected, msgpack.write(m));
+        assertArrayEquals(expected, msgpack.write(m));
+        assertEquals(v, msgpack.read(msgpack.write(m)));
+    }
+
+    @Test
+    public void testNested() throws Exception {
+        Value flags = ValueFactory.memoizedValue(config().asMapValue().get(ValueFactory.rawValue("flags")));
+        assertTrue(flags.isArray());
+        BufferPacker pk = new BufferPacker();
+        pk.enableDictionary();
+        pk.writeArrayBegin(3);
+        pk.write(flags);
+        pk.write(flags);
+        pk.writeString("beta");
+        pk.writeArrayEnd();
+
+        BufferUnpacker u = new BufferUnpacker();
+        u.enableDictionary();
+        u.wrap(pk.toByteArray());
+        assertEquals(3, u.readArrayBegin());
+        assertEquals(flags, u.readValue());
+        assertEquals(flags, u.readValue());
+        assertEquals("beta", u.readString());
+        u.readArrayEnd();
+
+        Unconverter uc = new Unconverter();
+        uc.writeArrayBegin(1);
+        flags.writeTo(uc);
+        uc.writeArrayEnd();
+        assertEquals(flags, uc.getResult().asArrayValue().get(0));
+    }
+
+    @Test
+    public void testScalar() {
+        Value i = ValueFactory.integerValue(1);
+        assertSame(i, ValueFactory.memoizedValue(i));
+        Value empty = ValueFactory.arrayValue();
+        assertSame(empty, ValueFactory.memoizedValue(empty));
+    }
+}
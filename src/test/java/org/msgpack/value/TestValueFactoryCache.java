@@ -0,0 +1,55 @@
+package org.msgpack.value;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.msgpack.MessagePack;
+import org.msgpack.packer.BufferPacker;
+import org.junit.Test;
+
+public class TestValueFactoryCache {
+    @Test
+    public void testFixnum() {
+        for(int i=-32; i <= 127; i++) {
+            assertSame(ValueFactory.integerValue(i), ValueFactory.integerValue((long)i));
+            assertSame(ValueFactory.integerValue(i), ValueFactory.integerValue((byte)i));
+            assertSame(ValueFactory.integerValue(i), ValueFactory.integerValue((short)i));
+            assertEquals(i, ValueFactory.integerValue(i).getInt());
+        }
+        assertNotSame(ValueFactory.integerValue(128), ValueFactory.integerValue(128));
+        assertNotSame(ValueFactory.integerValue(-33), ValueFactory.integerValue(-33));
+        assertEquals(ValueFactory.integerValue(1000L), ValueFactory.integerValue(1000));
+        assertEquals(ValueFactory.integerValue(1000L).hashCode(), ValueFactory.integerValue(1000).hashCode());
+    }
+
+    @Test
+    public void testEmpty() {
+        RawValue empty = ValueFactory.rawValue();
+        assertSame(empty, ValueFactory.rawValue(new byte[0]));
+        assertSame(empty, ValueFactory.rawValue(new byte[3], 1, 0));
+        assertSame(empty, ValueFactory.rawValue(""));
+        assertEquals("", empty.getString());
+        assertSame(ValueFactory.arrayValue(), ValueFactory.arrayValue(new Value[0]));
+        assertSame(ValueFactory.mapValue(), ValueFactory.mapValue(new Value[0]));
+    }
+
+    @Test
+    public void testReadValue() throws Exception {
+        BufferPacker pk = new BufferPacker();
+        pk.writeArrayBegin(5);
+        pk.writeInt(7);
+        pk.writeLong(7L);
+        pk.writeInt(-32);
+        pk.writeString("");
+        pk.writeArrayBegin(0);
+        pk.writeArrayEnd();
+        pk.writeArrayEnd();
+        ArrayValue v = new MessagePack().read(pk.toByteArray()).asArrayValue();
+        assertSame(ValueFactory.integerValue(7), v.get(0));
+        assertSame(ValueFactory.integerValue(7), v.get(1));
+        assertSame(ValueFactory.integerValue(-32), v.get(2));
+        assertSame(ValueFactory.rawValue(), v.get(3));
+        assertSame(ValueFactory.arrayValue(), v.get(4));
+    }
+}